@@ -1,17 +1,22 @@
 import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
 import java.net.SocketException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.Map;
-import java.util.Random;
 import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
 import java.nio.charset.StandardCharsets;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32C;
+import java.util.zip.Checksum;
 
 import com.google.gson.Gson;
 
@@ -19,11 +24,33 @@ class Config { // Classe para representar arquivo de configuração
   private int eliminateProbability;
   private int delayProbability;
   private int delayMS;
+  private Long seed; // Semente dos sorteios de falhas: execuções com a mesma semente repetem a mesma sequência de falhas (ausente: sorteio diferente a cada execução)
+  private String lossModel; // Modelo de eliminação: "uniform" (eliminateProbability por pacote), "gilbert-elliott" (rajadas) ou "trace" (arquivo lossTrace)
+  private double burstStartProbability; // Gilbert-Elliott: probabilidade (%) de iniciar uma rajada a cada pacote
+  private double burstEndProbability; // Gilbert-Elliott: probabilidade (%) de encerrar a rajada a cada pacote
+  private double burstLossProbability; // Gilbert-Elliott: probabilidade (%) de eliminação durante a rajada (fora dela vale eliminateProbability)
+  private String lossTrace; // Arquivo com a sequência de eliminações (1 elimina, 0 entrega), repetida ao chegar ao fim
+  private int delayJitterMS; // Variação aleatória do atraso, para mais ou para menos (mensagens atrasadas podem chegar fora de ordem)
   private int duplicateProbability;
   private int corruptBytes;
   private int corruptProbability;
   private int cutProbability;
   private int cutBytes;
+  private int maxSegmentSize; // Tamanho máximo do datagrama (header + dados), mensagens maiores são fragmentadas
+  private int reassemblyTimeoutMS; // Prazo para receber todos os fragmentos de uma mensagem
+  private int reassemblyBufferBytes; // Bytes de mensagens incompletas armazenados, ao exceder as mais antigas são descartadas
+  private String executor; // Execução do envio dos ACKs: "virtual" (virtual threads) ou "pool" (pool limitado de threads)
+  private int executorThreads; // Quantidade de threads do pool
+  private String checksum; // Algoritmo de checksum dos segmentos: "crc32c" ou "sum" (soma dos bytes)
+  private String logLevel; // Nível do log de pacotes: "off", "warn" (falhas) ou "debug" (tudo)
+  private String logFile; // Arquivo do log de pacotes (vazio: console)
+  private int logBufferSize; // Quantidade de eventos de log pendentes antes de começar a descartar
+  private int bufferPoolSize; // Quantidade de buffers devolvidos mantidos para reutilização
+  private boolean bufferLeakDetection; // Registra onde cada buffer foi emprestado e exibe, ao fechar o canal, os que não foram devolvidos
+  private int sendWorkers; // Threads do envio paralelo do cliente
+  private double sendRate; // Limite de envio dos segmentos de dados, em sendRateUnit por segundo (0: sem limite)
+  private String sendRateUnit; // Unidade de sendRate: "packets" (segmentos) ou "bytes"
+  private double sendBurst; // Rajada máxima após um período sem envios, na mesma unidade (0: 10 ms da taxa, no mínimo um segmento)
 
   public int getEliminateProbability() {
     return eliminateProbability;
@@ -34,6 +61,27 @@ class Config { // Classe para representar arquivo de configuração
   public int getDelayMS() {
     return delayMS;
   }
+  public int getDelayJitterMS() {
+    return delayJitterMS;
+  }
+  public Long getSeed() {
+    return seed;
+  }
+  public String getLossModel() {
+    return lossModel == null ? "uniform" : lossModel;
+  }
+  public double getBurstStartProbability() {
+    return burstStartProbability;
+  }
+  public double getBurstEndProbability() {
+    return burstEndProbability;
+  }
+  public double getBurstLossProbability() {
+    return burstLossProbability;
+  }
+  public String getLossTrace() {
+    return lossTrace;
+  }
   public int getDuplicateProbability() {
     return duplicateProbability;
   }
@@ -49,34 +97,134 @@ class Config { // Classe para representar arquivo de configuração
   public int getCutBytes() {
     return cutBytes;
   }
+  public int getMaxSegmentSize() {
+    return maxSegmentSize == 0 ? 1024 : maxSegmentSize;
+  }
+  public int getReassemblyTimeoutMS() {
+    return reassemblyTimeoutMS == 0 ? 5000 : reassemblyTimeoutMS;
+  }
+  public int getReassemblyBufferBytes() {
+    return reassemblyBufferBytes == 0 ? 16 * 1024 * 1024 : reassemblyBufferBytes;
+  }
+  public String getExecutor() {
+    return executor == null ? "pool" : executor;
+  }
+  public int getExecutorThreads() {
+    return executorThreads == 0 ? 32 : executorThreads;
+  }
+  public String getChecksum() {
+    return checksum == null ? "crc32c" : checksum;
+  }
+  public String getLogLevel() {
+    return logLevel == null ? "debug" : logLevel;
+  }
+  public String getLogFile() {
+    return logFile == null ? "" : logFile;
+  }
+  public int getLogBufferSize() {
+    return logBufferSize == 0 ? 8192 : logBufferSize;
+  }
+  public int getBufferPoolSize() {
+    return bufferPoolSize == 0 ? 1024 : bufferPoolSize;
+  }
+  public boolean isBufferLeakDetection() {
+    return bufferLeakDetection;
+  }
+  public int getSendWorkers() {
+    return sendWorkers == 0 ? 4 : sendWorkers;
+  }
+  public double getSendRate() {
+    return sendRate;
+  }
+  public String getSendRateUnit() {
+    return sendRateUnit == null ? "packets" : sendRateUnit;
+  }
+  public double getSendBurst() {
+    return sendBurst;
+  }
 }
 
-public class Channel extends DatagramSocket { // Canal de comunicação
+public class Channel extends DatagramSocket implements SelectorTransport.Endpoint { // Canal de comunicação
 
-  class ACKSender extends Thread { // Envia os ACKs em paralelo
+  private class ACKSender implements Runnable { // Envia os ACKs em ordem, reutilizado: no máximo uma tarefa no executor (os sorteios das falhas dos ACKs seguem a ordem de recebimento)
     private Channel channel;
-    private int seqNumber;
-    private DatagramPacket p;
-  
-    public ACKSender(Channel channel, int seqNumber, DatagramPacket p) {
+    private int[] seqNumbers = new int[64]; // ACKs aguardando o envio (buffer circular, cresce até MAX_PENDING_ACKS)
+    private InetAddress[] addresses = new InetAddress[64];
+    private int[] ports = new int[64];
+    private int head = 0;
+    private int count = 0;
+    private boolean scheduled = false; // Tarefa no executor, que envia também os ACKs enfileirados depois
+
+    public ACKSender(Channel channel) {
       this.channel = channel;
-      this.seqNumber = seqNumber;
-      this.p = p;
+    }
+
+    public void queue(InetAddress address, int port, int seqNumber) {
+      synchronized(this) {
+        if(count == seqNumbers.length && seqNumbers.length < MAX_PENDING_ACKS) grow();
+        if(count == seqNumbers.length) { // Fila no limite (o executor não acompanha os recebimentos): descarta o ACK mais antigo, como se perdido na rede
+          addresses[head] = null;
+          head = (head + 1) % seqNumbers.length;
+          count--;
+        }
+        int index = (head + count) % seqNumbers.length;
+        seqNumbers[index] = seqNumber;
+        addresses[index] = address;
+        ports[index] = port;
+        count++;
+        if(scheduled) return;
+        scheduled = true;
+      }
+      try {
+        channel.executor.execute(this);
+      } catch (RejectedExecutionException e) { // Canal fechado enquanto o datagrama era tratado: o ACK é descartado
+        synchronized(this) {
+          scheduled = false;
+        }
+      }
+    }
+
+    private void grow() { // Dobra a capacidade mantendo a ordem a partir de head
+      int[] newSeqNumbers = new int[seqNumbers.length * 2];
+      InetAddress[] newAddresses = new InetAddress[seqNumbers.length * 2];
+      int[] newPorts = new int[seqNumbers.length * 2];
+      for(int i = 0 ; i < count ; i++) {
+        int index = (head + i) % seqNumbers.length;
+        newSeqNumbers[i] = seqNumbers[index];
+        newAddresses[i] = addresses[index];
+        newPorts[i] = ports[index];
+      }
+      seqNumbers = newSeqNumbers;
+      addresses = newAddresses;
+      ports = newPorts;
+      head = 0;
     }
 
     @Override
     public void run() {
-      try {
-        this.sendACK();
-      } catch (IOException e) {
-        System.out.println("Erro ao receber ACK");
-        e.printStackTrace();
+      while(true) {
+        int seqNumber;
+        InetAddress address;
+        int port;
+        synchronized(this) {
+          if(count == 0) {
+            scheduled = false;
+            return;
+          }
+          seqNumber = seqNumbers[head];
+          address = addresses[head];
+          port = ports[head];
+          addresses[head] = null;
+          head = (head + 1) % seqNumbers.length;
+          count--;
+        }
+        this.sendACK(address, port, seqNumber);
       }
     }
   
-    private void sendACK() throws IOException {
+    private void sendACK(InetAddress address, int port, int seqNumber) {
       try {
-        channel.sendACK(p, seqNumber);
+        channel.sendACK(address, port, seqNumber);
       } catch (Exception e) {
         System.out.println("Erro ao enviar ACK");
         e.printStackTrace();
@@ -85,25 +233,60 @@ public class Channel extends DatagramSocket { // Canal de comunicação
   }
 
 
+  private static final int RECEIVE_WINDOW = 1 << 16; // Reordenação máxima acompanhada na detecção de duplicatas (8 KiB por cliente)
+  private static final int HEADER_SIZE = 12; // Checksum + número de sequência + índice do fragmento + quantidade de fragmentos
+  private static final int MAX_FRAGMENTS = 0xFFFF; // Campos de 2 bytes sem sinal
+  private static final int MAX_DATAGRAM_SIZE = 65507; // Maior payload UDP sobre IPv4
+  private static final int MAX_PENDING_ACKS = 1 << 14; // Limite da fila do ACKSender
+  private static final int SOCKET_BUFFER_BYTES = 4 * 1024 * 1024; // Os fragmentos de uma mensagem chegam em rajada, o kernel limita o valor a net.core.rmem_max
+
   private Config config;
-  private Random random = new Random();
+  private Impairment impairment; // Sorteio das falhas injetadas
   private int sequenceNumber = 1;
 
-  private ConcurrentHashMap<String, Integer> sendCount = new ConcurrentHashMap<>();
-  private ConcurrentHashMap<String, Integer> eliminateCount = new ConcurrentHashMap<>();
-  private ConcurrentHashMap<String, Integer> delayCount = new ConcurrentHashMap<>();
-  private ConcurrentHashMap<String, Integer> duplicateCount = new ConcurrentHashMap<>();
-  private ConcurrentHashMap<String, Integer> corruptCount = new ConcurrentHashMap<>();
-  private ConcurrentHashMap<String, Integer> cutCount = new ConcurrentHashMap<>();
+  private enum Sent { SENT, ELIMINATED, DELAYED, DUPLICATED, CORRUPTED, CUT, DATA } // Contadores de envio por destinatário (DATA: segmentos de dados, sem os ACKs)
+  private enum Received { RECEIVED, FAILED_INTEGRITY, DUPLICATED, INCOMPLETE, ACKED } // Contadores de recebimento por remetente (ACKED: ACKs distintos)
 
-  private ConcurrentHashMap<String, Integer> receivedCount = new ConcurrentHashMap<>();
-  private ConcurrentHashMap<String, Integer> receivedWithFailedIntegrityCount = new ConcurrentHashMap<>();
-  private ConcurrentHashMap<String, Integer> receiveDuplicateCount = new ConcurrentHashMap<>();
+  private ChannelMetrics<Sent> sentMetrics = new ChannelMetrics<>(Sent.class);
+  private ChannelMetrics<Received> receivedMetrics = new ChannelMetrics<>(Received.class);
+
+  private static class Source { // Estado de recepção de um cliente, o endereço é alocado uma única vez
+    private final InetSocketAddress address;
+    private final SequenceWindow receivedSeqNums = new SequenceWindow(RECEIVE_WINDOW); // Números de sequência recebidos do cliente
+
+    private Source(InetAddress address, int port) {
+      this.address = new InetSocketAddress(address, port);
+    }
+  }
 
-  private ConcurrentHashMap<String, ArrayList<Integer>> seqNumberMap = new ConcurrentHashMap<>();
+  private PeerMap<Source> sources = new PeerMap<>(); // Buscado pelo endereço e porta sem alocar a chave
+
+  private DatagramChannel datagramChannel; // Transporte NIO (null quando o próprio socket é utilizado)
+  private ExecutorService executor; // Executa o envio dos ACKs
+  private final ACKSender ackSender = new ACKSender(this);
+  private volatile boolean closing = false; // Fechamento iniciado: as threads em receive são acordadas e os datagramas recebidos são descartados
+  private final AtomicInteger receivers = new AtomicInteger(); // Threads bloqueadas em receive
+  private PacketLog packetLog; // Log assíncrono dos pacotes com falha
+  private DelayLine delayLine; // Envia as mensagens atrasadas sem bloquear quem as enviou
+  private Reassembly reassembly; // Fragmentos das mensagens ainda incompletas
+  private BufferPool bufferPool; // Buffers dos segmentos recebidos, enviados, atrasados e dos fragmentos armazenados
+  private TokenBucket sendPacer; // Limita a taxa dos segmentos de dados (null: sem limite)
+  private boolean paceBytes; // sendRate em bytes por segundo, senão em segmentos por segundo
+  private ThreadLocal<Checksum> checksum = ThreadLocal.withInitial(this::createChecksum); // Implementações de Checksum não são thread safe
 
   public Channel(int port) throws SocketException {
     super(port);
+    this.init();
+    this.setReceiveBufferSize(SOCKET_BUFFER_BYTES);
+  }
+
+  public Channel(int port, SelectorTransport transport) throws IOException { // Canal sobre um DatagramChannel não bloqueante, os datagramas são entregues pelo laço de eventos do transporte
+    super((SocketAddress) null);
+    this.init();
+    this.datagramChannel = transport.bind(port, this, config.getMaxSegmentSize());
+  }
+
+  private void init() {
     Gson gson = new Gson();
     try {
       this.config = gson.fromJson(Files.readString(Path.of("config.json")), Config.class); // Leitura do arquivo config.json
@@ -112,122 +295,252 @@ public class Channel extends DatagramSocket { // Canal de comunicação
       e.printStackTrace();
       System.exit(1);
     }
+    if(config.getMaxSegmentSize() <= HEADER_SIZE || config.getMaxSegmentSize() > MAX_DATAGRAM_SIZE) { // Segmento sem espaço para dados ou maior que um datagrama UDP
+      System.out.printf("maxSegmentSize inválido: %d (deve estar entre %d e %d)%n", config.getMaxSegmentSize(), HEADER_SIZE + 1, MAX_DATAGRAM_SIZE);
+      System.exit(1);
+    }
+    this.executor = createExecutor();
+    this.impairment = new Impairment(config.getSeed(), config.getLossModel(), config.getBurstStartProbability(), config.getBurstEndProbability(), config.getBurstLossProbability(), config.getLossTrace());
+    this.bufferPool = new BufferPool(config.getMaxSegmentSize(), config.getBufferPoolSize(), config.isBufferLeakDetection());
+    this.delayLine = new DelayLine(this::transmit, bufferPool);
+    this.packetLog = new PacketLog(PacketLog.parseLevel(config.getLogLevel()), config.getLogFile(), config.getLogBufferSize(), false, this::getMessage);
+    this.reassembly = new Reassembly(config.getReassemblyBufferBytes(), config.getReassemblyTimeoutMS(), this::discardIncomplete, bufferPool);
+    if(config.getSendRate() > 0) {
+      this.paceBytes = config.getSendRateUnit().equalsIgnoreCase("bytes");
+      double burst = config.getSendBurst() > 0 ? config.getSendBurst() : Math.max(paceBytes ? config.getMaxSegmentSize() : 1, config.getSendRate() / 100);
+      this.sendPacer = new TokenBucket(config.getSendRate(), burst);
+    }
   }
 
-  private synchronized int getSequenceNumber() { // Retorna o sequence number da próxima mensagem a ser enviada
-    return sequenceNumber++;
+  private ExecutorService createExecutor() { // Executor das tarefas curtas do canal: um pool limitado de threads (padrão, o projeto compila para Java 17) ou virtual threads, se pedidas
+    if(config.getExecutor().equalsIgnoreCase("virtual")) {
+      try {
+        return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null); // Disponível a partir do Java 21
+      } catch (ReflectiveOperationException | UnsupportedOperationException e) { // Não troca silenciosamente pelo pool: os resultados seriam atribuídos às virtual threads
+        System.out.printf("executor \"virtual\" exige virtual threads (Java 21+), indisponíveis nesta JVM (Java %s)%n", Runtime.version().feature());
+        System.exit(1);
+      }
+    }
+    if(!config.getExecutor().equalsIgnoreCase("pool")) {
+      System.out.printf("executor inválido: %s (deve ser \"pool\" ou \"virtual\")%n", config.getExecutor());
+      System.exit(1);
+    }
+    AtomicInteger threadCount = new AtomicInteger();
+    return Executors.newFixedThreadPool(config.getExecutorThreads(), (Runnable task) -> {
+      Thread thread = new Thread(task, "Channel-" + threadCount.incrementAndGet());
+      thread.setDaemon(true); // Não impede o término do programa
+      return thread;
+    });
+  }
+
+  public int getSendWorkers() { // Threads do envio paralelo definidas no config.json
+    return config.getSendWorkers();
+  }
+
+  @Override
+  public void close() { // Encerra primeiro quem ainda pode receber pacotes e enviar ACKs, o socket e os buffers só são liberados quando nenhuma thread os utiliza
+    closing = true;
+    stopReceivers();
+    executor.shutdown();
+    try {
+      executor.awaitTermination(1, TimeUnit.SECONDS); // ACKs em envio, ainda com o socket aberto
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    delayLine.close();
+    super.close();
+    if(datagramChannel != null) {
+      try {
+        datagramChannel.close();
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+    packetLog.close();
+    reassembly.clear();
+    int leaks = bufferPool.reportLeaks();
+    if(leaks > 0) System.out.printf("%d buffers não devolvidos ao pool%n", leaks);
+  }
+
+  private void stopReceivers() { // Acorda as threads bloqueadas em receive (ouvinte de ACKs, laço do servidor) com datagramas vazios para si mesmo e aguarda a sua saída
+    if(datagramChannel != null) return;
+    DatagramPacket wakeUp = new DatagramPacket(new byte[0], 0, InetAddress.getLoopbackAddress(), getLocalPort());
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1); // Quem volta a chamar receive recebe SocketException, não aguarda mais
+    try {
+      while(receivers.get() > 0 && System.nanoTime() < deadline) {
+        super.send(wakeUp);
+        Thread.sleep(10);
+      }
+    } catch (IOException e) {
+      e.printStackTrace();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private synchronized int getSequenceNumbers(int count) { // Reserva números de sequência consecutivos para os fragmentos da mensagem, retorna o primeiro
+    int first = sequenceNumber;
+    sequenceNumber += count;
+    return first;
   }
 
   @Override public void send(DatagramPacket p) throws IOException {
     this.send(p, -1);
   }
 
-  public void send(DatagramPacket p, int sequenceNumber) throws IOException { // Recebe pedidos de envio de segmentos UDP
-    incrementCount(sendCount, getClientKey(p));
+  public void send(DatagramPacket p, int sequenceNumber) throws IOException { // Recebe pedidos de envio, mensagens maiores que maxSegmentSize são enviadas em fragmentos
     byte[] messageBytes = p.getData();
-    int definedSequenceNumber;
+    int maxPayload = config.getMaxSegmentSize() - HEADER_SIZE;
+    int fragmentCount = Math.max(1, (messageBytes.length + maxPayload - 1) / maxPayload);
+    if(fragmentCount > MAX_FRAGMENTS) throw new IOException("Mensagem excede " + MAX_FRAGMENTS + " fragmentos");
+    int firstSequenceNumber;
     if(sequenceNumber != -1) { // Se o número de sequência for diferente de -1, utiliza o número de sequência fornecido (para ACKs, por exemplo)
-      definedSequenceNumber = sequenceNumber;
-    } else { // Caso contrário, pega o próximo número de sequência
-      definedSequenceNumber = getSequenceNumber();
+      firstSequenceNumber = sequenceNumber;
+    } else { // Caso contrário, reserva os próximos números de sequência, um por fragmento
+      firstSequenceNumber = getSequenceNumbers(fragmentCount);
     }
 
-    byte[] seqNumber = java.nio.ByteBuffer.allocate(4).putInt(definedSequenceNumber).array();
-
-    int sum = calculateChecksum(messageBytes, seqNumber);
-
-    byte[] checksum = java.nio.ByteBuffer.allocate(4).putInt(sum).array();
-
-    byte[] data = new byte[checksum.length + seqNumber.length + messageBytes.length];
-    System.arraycopy(checksum, 0, data, 0, checksum.length);  // Primeiros 4 bytes da mensagem representam o checksum
-    System.arraycopy(seqNumber, 0, data, checksum.length, seqNumber.length); // 4 Bytes seguintes representam o número de sequência
-    System.arraycopy(messageBytes, 0, data, checksum.length + seqNumber.length, messageBytes.length); // Restante da mensagem é o conteúdo de fato
+    for(int i = 0 ; i < fragmentCount ; i++) {
+      int offset = i * maxPayload;
+      int length = Math.min(maxPayload, messageBytes.length - offset);
+      if(sequenceNumber == -1) { // Segmento de dados: aguarda a vez conforme sendRate (ACKs não são limitados)
+        if(sendPacer != null) sendPacer.acquire(paceBytes ? HEADER_SIZE + length : 1);
+        sentMetrics.increment(p, Sent.DATA);
+      }
+      byte[] data = bufferPool.lease(HEADER_SIZE + length);
+      ByteBuffer header = ByteBuffer.wrap(data);
+      header.putInt(4, firstSequenceNumber + i); // 4 Bytes seguintes ao checksum representam o número de sequência
+      header.putShort(8, (short) i); // Índice do fragmento, o primeiro fragmento identifica a mensagem (número de sequência - índice)
+      header.putShort(10, (short) fragmentCount);
+      System.arraycopy(messageBytes, offset, data, HEADER_SIZE, length); // Restante do segmento é o conteúdo de fato
+      header.putInt(0, calculateChecksum(data, HEADER_SIZE + length)); // Primeiros 4 bytes da mensagem representam o checksum
+      try {
+        sendSegment(new DatagramPacket(data, HEADER_SIZE + length, p.getSocketAddress()), sequenceNumber == -1 ? Impairment.Direction.DATA : Impairment.Direction.ACK);
+      } finally { // Enviado ou copiado pela fila de atraso
+        bufferPool.release(data);
+      }
+    }
+  }
 
-    p.setData(data);
-    p.setLength(data.length);
+  private void sendSegment(DatagramPacket p, Impairment.Direction direction) throws IOException { // Aplica as falhas e envia um segmento já montado, os sorteios seguem a sequência da direção
+    sentMetrics.increment(p, Sent.SENT);
 
-    if(randomize(config.getEliminateProbability())) { // Verifica se a mensagem deve ser eliminada
-      incrementCount(eliminateCount, getClientKey(p));
-      logMessage(p, "Eliminada", false);
+    if(impairment.lose(p, direction, config.getEliminateProbability())) { // Verifica se a mensagem deve ser eliminada
+      sentMetrics.increment(p, Sent.ELIMINATED);
+      packetLog.packet(PacketLog.Level.WARN, PacketLog.Color.NONE, "Eliminada", p, false);
       return;
     }
 
-    if(randomize(config.getCutProbability())) { // Verifica se a mensagem deve ser cortada - Sempre é cortada se > 1024 bytes
+    if(randomize(p, direction, config.getCutProbability())) { // Verifica se a mensagem deve ser cortada - Sempre é cortada se > 1024 bytes
       this.cutMessage(p);
     }
     
-    if(randomize(config.getDelayProbability())) { // Verifica se a mensagem deve ser atrasada - Sempre é atrasada
+    boolean delayed = randomize(p, direction, config.getDelayProbability());
+    if(delayed) { // Verifica se a mensagem deve ser atrasada - Sempre é atrasada
       this.delayMessage(p);
     }
     
-    if(randomize(config.getCorruptProbability())) { // Verifica se a mensagem deve ser corrompida
-      this.corruptMesage(p);
-    } else if(randomize(config.getDuplicateProbability())) { // Verifica se a mensagem deve ser duplicada
-      this.duplicateMessage(p);
+    if(randomize(p, direction, config.getCorruptProbability())) { // Verifica se a mensagem deve ser corrompida
+      this.corruptMesage(p, direction);
+    } else if(randomize(p, direction, config.getDuplicateProbability())) { // Verifica se a mensagem deve ser duplicada
+      this.duplicateMessage(p, direction, delayed);
     }
 
-    super.send(p); // Envia a mensagem
+    release(p, direction, delayed); // Envia a mensagem
   }
 
 
   public String receive(int length) throws IOException { // Recebe a mensagem
-    DatagramPacket p = new DatagramPacket(new byte[length], length);
-    super.receive(p);
-    incrementCount(receivedCount, getClientKey(p));
-    byte[] data = p.getData();
-    byte[] checksum = Arrays.copyOfRange(data, 0, 4);
-    byte[] seqNumber = Arrays.copyOfRange(data, 4, 8);
-    int seqNumberInt = ByteBuffer.wrap(seqNumber).getInt();
-    byte[] message = Arrays.copyOfRange(data, 8, p.getLength());
-    String messageString = new String(message, StandardCharsets.UTF_8);
-
-    int sum = calculateChecksum(message, seqNumber);
-    if(sum != ByteBuffer.wrap(checksum).getInt()) { // Verifica se o checksum está correto
-      logMessage(p, "Corrompida/cortada", true);
-      incrementCount(receivedWithFailedIntegrityCount, getClientKey(p));
-      return messageString;
+    if(datagramChannel != null) throw new IllegalStateException("Canal registrado em um SelectorTransport, os datagramas são entregues pelo laço de eventos");
+    if(closing) throw new SocketException("Canal fechado");
+    receivers.incrementAndGet();
+    byte[] buffer = bufferPool.lease(length);
+    try {
+      DatagramPacket p = new DatagramPacket(buffer, length);
+      super.receive(p);
+      return process(p);
+    } finally { // A mensagem retornada e os fragmentos armazenados são cópias
+      bufferPool.release(buffer);
+      receivers.decrementAndGet();
     }
+  }
 
-    if(seqNumberMap.getOrDefault(getClientKey(p), null) == null) {
-      seqNumberMap.put(getClientKey(p), new ArrayList<Integer>());
-    }
+  @Override
+  public void onDatagram(DatagramPacket p) throws IOException { // Datagrama entregue pelo SelectorTransport
+    process(p);
+  }
 
-    ArrayList<Integer> seqNumList = seqNumberMap.get(getClientKey(p));
-    if(seqNumList.contains(seqNumberInt)) { // Verifica se a mensagem é duplicada
-      logMessage(p, "Duplicada", true);
-      incrementCount(receiveDuplicateCount, getClientKey(p));
+  private String process(DatagramPacket p) throws IOException { // Trata o segmento recebido, retorna null para fragmentos de mensagens ainda incompletas
+    if(closing) return null; // Canal em fechamento: descarta o datagrama (inclusive o que acorda as threads em receive)
+    receivedMetrics.increment(p, Received.RECEIVED);
+    byte[] data = p.getData();
+    int offset = Math.min(HEADER_SIZE, p.getLength());
+    String messageString = new String(data, offset, p.getLength() - offset, StandardCharsets.UTF_8);
+
+    if(p.getLength() < HEADER_SIZE || calculateChecksum(data, p.getLength()) != ByteBuffer.wrap(data).getInt(0)) { // Verifica se o checksum está correto
+      packetLog.packet(PacketLog.Level.WARN, PacketLog.Color.NONE, "Corrompida/cortada", p, true);
+      receivedMetrics.increment(p, Received.FAILED_INTEGRITY);
+      return messageString;
+    }
+    ByteBuffer header = ByteBuffer.wrap(data);
+    int seqNumberInt = header.getInt(4);
+    int fragmentIndex = header.getShort(8) & 0xFFFF;
+    int fragmentCount = header.getShort(10) & 0xFFFF;
+
+    Source source = sources.get(p);
+    if(source == null) source = sources.computeIfAbsent(p.getAddress(), p.getPort(), Source::new);
+    SequenceWindow receivedSeqNums = source.receivedSeqNums;
+    boolean duplicated = !receivedSeqNums.add(seqNumberInt);
+    if(duplicated) { // Verifica se a mensagem é duplicada
+      packetLog.packet(PacketLog.Level.WARN, PacketLog.Color.NONE, "Duplicada", p, true);
+      receivedMetrics.increment(p, Received.DUPLICATED);
     } else {
-      seqNumList.add(seqNumberInt);
       if(!messageString.equals("ACK")) {
-        new ACKSender(this, seqNumberInt, p).start(); // Envia o ACK
+        ackSender.queue(p.getAddress(), p.getPort(), seqNumberInt); // Envia o ACK
+      } else {
+        receivedMetrics.increment(p, Received.ACKED);
       }
     }
 
-    return messageString;
+    if(fragmentCount <= 1) return messageString;
+    if(duplicated) return null; // O fragmento já foi armazenado
+    byte[] complete = reassembly.add(source.address, seqNumberInt - fragmentIndex, fragmentIndex, fragmentCount, data, HEADER_SIZE, p.getLength() - HEADER_SIZE);
+    return complete == null ? null : new String(complete, StandardCharsets.UTF_8);
   }
 
-  private void delayMessage(DatagramPacket p) { // Método para atrasar a mensagem
+  private void discardIncomplete(InetSocketAddress source, int messageId, int received, int count) { // Mensagem expirada ou sem espaço no buffer de remontagem
+    packetLog.event(PacketLog.Level.WARN, PacketLog.Color.NONE, "Mensagem %d descartada: fragmentos incompletos", messageId);
+    receivedMetrics.increment(source, Received.INCOMPLETE);
+  }
+
+  private void delayMessage(DatagramPacket p) { // Método para atrasar a mensagem (o envio é feito pela fila de atraso)
     // logMessage(p, "Atrasada");
-    try {
-      Thread.sleep(config.getDelayMS());
-      incrementCount(delayCount, getClientKey(p));
-    } catch(InterruptedException e) {
-      System.out.println("Error while generating delay");
-      e.printStackTrace();
-      System.exit(1);
+    sentMetrics.increment(p, Sent.DELAYED);
+  }
+
+  private void release(DatagramPacket p, Impairment.Direction direction, boolean delayed) throws IOException { // Envia imediatamente ou agenda o envio na fila de atraso
+    if(delayed) {
+      delayLine.schedule(p, getDelay(p, direction));
+    } else {
+      transmit(p);
     }
   }
 
-  private void corruptMesage(DatagramPacket p) throws IOException { // Método para corromper a mensagem
-    logMessage(p, "Corrompida", false);
-    byte[] data = p.getData();
-    data[random.nextInt(data.length)] += 1;
-    incrementCount(corruptCount, getClientKey(p));
+  private long getDelay(DatagramPacket p, Impairment.Direction direction) { // delayMS com variação uniforme de até delayJitterMS para mais ou para menos
+    int jitter = config.getDelayJitterMS();
+    if(jitter <= 0) return config.getDelayMS();
+    return Math.max(0, config.getDelayMS() + impairment.nextInt(p, direction, 2 * jitter + 1) - jitter);
+  }
+
+  private void corruptMesage(DatagramPacket p, Impairment.Direction direction) throws IOException { // Método para corromper a mensagem
+    packetLog.packet(PacketLog.Level.WARN, PacketLog.Color.NONE, "Corrompida", p, false);
+    p.getData()[p.getOffset() + impairment.nextInt(p, direction, p.getLength())] += 1; // Apenas dentro do segmento, o buffer do pool pode ser maior
+    sentMetrics.increment(p, Sent.CORRUPTED);
   }
 
   private void cutMessage(DatagramPacket p) { // Método para cortar a mensagem
     if(p.getLength() > config.getCutBytes()) {
-      logMessage(p, "Cortada", false);
+      packetLog.packet(PacketLog.Level.WARN, PacketLog.Color.NONE, "Cortada", p, false);
       byte[] newData = new byte[config.getCutBytes()];
       byte[] oldData = p.getData();
       for (int i = 0; i < newData.length; i++) {
@@ -235,124 +548,113 @@ public class Channel extends DatagramSocket { // Canal de comunicação
       }
       p.setData(newData);
       p.setLength(newData.length);
-      incrementCount(cutCount, getClientKey(p));
+      sentMetrics.increment(p, Sent.CUT);
     }
   }
 
-  private void duplicateMessage(DatagramPacket p) throws IOException { // Método para duplicar a mensagem
-    logMessage(p, "Duplicada", false);
-    super.send(p);
-    incrementCount(duplicateCount, getClientKey(p));
+  private void duplicateMessage(DatagramPacket p, Impairment.Direction direction, boolean delayed) throws IOException { // Método para duplicar a mensagem
+    packetLog.packet(PacketLog.Level.WARN, PacketLog.Color.NONE, "Duplicada", p, false);
+    release(p, direction, delayed);
+    sentMetrics.increment(p, Sent.DUPLICATED);
   }
 
-  private boolean randomize(int probability) {
-    return random.nextInt(100) < probability;
-  }
-
-  private String getClientKey(DatagramPacket p) {
-    return p.getAddress().getHostAddress() + ":" + p.getPort();
-  }
-
-  private int getSegmentSeqNumber(DatagramPacket p) {
-    byte[] data = p.getData();
-    byte[] seqNumber = Arrays.copyOfRange(data, 4, 8);
-
-    return ByteBuffer.wrap(seqNumber).getInt();
+  private void transmit(DatagramPacket p) throws IOException { // Envia o datagrama pelo socket ou pelo DatagramChannel
+    if(datagramChannel == null) {
+      super.send(p);
+    } else {
+      datagramChannel.send(ByteBuffer.wrap(p.getData(), p.getOffset(), p.getLength()), p.getSocketAddress());
+    }
   }
 
-  private synchronized void incrementCount(Map<String, Integer> map, String key) {
-    map.put(key, map.getOrDefault(key, 0) + 1);
+  private boolean randomize(DatagramPacket p, Impairment.Direction direction, int probability) {
+    return impairment.chance(p, direction, probability);
   }
 
-  private void logMessage(DatagramPacket p, String status, boolean received) {
-    System.out.printf("%s [%d]: %s - \"%s\"%n", received ? "Recebida" : "Enviada", getSegmentSeqNumber(p), status, getMessage(p));
+  private String getClientKey(InetSocketAddress address) {
+    return address.getAddress().getHostAddress() + ":" + address.getPort();
   }
 
   public void consolidateAll() { // Consolida todas as estatísticas
+    reassembly.expire(); // Mensagens incompletas além do prazo entram no resumo
+    packetLog.flush(); // Escreve os eventos pendentes antes do resumo
     System.out.printf("Resumo de mensagens enviadas:%n");
-    sendCount.keySet().forEach((String key) -> {
-      System.out.printf("-----------%s-----------%n", key);
-      consolidateSent(key);
+    sentMetrics.snapshot().forEach((InetSocketAddress address, long[] counts) -> {
+      System.out.printf("-----------%s-----------%n", getClientKey(address));
+      consolidateSent(counts);
     });
     System.out.printf("------------------------------------%n");
 
     System.out.printf("Resumo de mensagens recebidas:%n");
-    receivedCount.keySet().forEach((String key) -> {
-      System.out.printf("-----------%s-----------%n", key);
-      consolidateReceived(key);
+    receivedMetrics.snapshot().forEach((InetSocketAddress address, long[] counts) -> {
+      System.out.printf("-----------%s-----------%n", getClientKey(address));
+      consolidateReceived(address, counts);
     });
     System.out.printf("------------------------------------%n");
+    consolidateBufferPool();
   }
 
-  private void consolidateSent(String key) { // Consolida as estatísticas de envio
-    System.out.printf("Total de mensagens enviadas: %d%n", sendCount.getOrDefault(key, 0));
-    System.out.printf("Total de mensagens eliminadas: %d%n", eliminateCount.getOrDefault(key, 0));
-    // System.out.printf("Total de mensagens atrasadas: %d%n", delayCount.getOrDefault(key, 0));
-    System.out.printf("Total de mensagens duplicadas: %d%n", duplicateCount.getOrDefault(key, 0));
-    System.out.printf("Total de mensagens corrompidas: %d%n", corruptCount.getOrDefault(key, 0));
-    System.out.printf("Total de mensagens cortadas: %d%n", cutCount.getOrDefault(key, 0));
-
-    sendCount.put(key, 0);
-    eliminateCount.put(key, 0);
-    delayCount.put(key, 0);
-    duplicateCount.put(key, 0);
-    corruptCount.put(key, 0);
-    cutCount.put(key, 0);
-  }
-
-  private void consolidateReceived(String key) { // Consolida as estatísticas de recebimento
-    ArrayList<Integer> seqNumlist = seqNumberMap.getOrDefault(key, new ArrayList<>());
-    System.out.printf("Total de mensagens recebidas: %d%n", receivedCount.getOrDefault(key, 0));
-    System.out.printf("Total de mensagens perdidas (Sequence Number não encontrado): %d%n", seqNumlist.size() == 0 ? 0 : countMissingMessages(seqNumlist) - receivedWithFailedIntegrityCount.getOrDefault(key, 0));
-    System.out.printf("Total de mensagens duplicadas: %d%n", receiveDuplicateCount.getOrDefault(key, 0));
-    System.out.printf("Total de mensagens corrompidas/cortadas (checksum falhou): %d%n", receivedWithFailedIntegrityCount.getOrDefault(key, 0));
-
-    sendCount.put(key, 0);
-    eliminateCount.put(key, 0);
-    delayCount.put(key, 0);
-    duplicateCount.put(key, 0);
-    corruptCount.put(key, 0);
-    cutCount.put(key, 0);
-  }
-
-  private int countMissingMessages(ArrayList<Integer> seqNumlist) {
-    Collections.sort(seqNumlist);
-    int missing = 0;
-    for(int i = 1; i < seqNumlist.size(); i++) {
-      if(seqNumlist.get(i) - seqNumlist.get(i - 1) > 1) {
-        missing += seqNumlist.get(i) - seqNumlist.get(i - 1) - 1;
-      }
-    }
-    missing += seqNumlist.get(0) - 1;
+  private void consolidateBufferPool() { // Estatísticas do pool de buffers desde a criação do canal
+    long hits = bufferPool.getHits();
+    long misses = bufferPool.getMisses();
+    System.out.printf("Pool de buffers: %d reutilizados, %d alocados (%.1f%% de acerto), %d em uso%n", hits, misses, hits + misses == 0 ? 0 : 100.0 * hits / (hits + misses), bufferPool.getInUse());
+  }
 
-    return missing;
+  private void consolidateSent(long[] counts) { // Consolida as estatísticas de envio
+    System.out.printf("Total de mensagens enviadas: %d%n", counts[Sent.SENT.ordinal()]);
+    System.out.printf("Total de mensagens eliminadas: %d%n", counts[Sent.ELIMINATED.ordinal()]);
+    // System.out.printf("Total de mensagens atrasadas: %d%n", counts[Sent.DELAYED.ordinal()]);
+    System.out.printf("Total de mensagens duplicadas: %d%n", counts[Sent.DUPLICATED.ordinal()]);
+    System.out.printf("Total de mensagens corrompidas: %d%n", counts[Sent.CORRUPTED.ordinal()]);
+    System.out.printf("Total de mensagens cortadas: %d%n", counts[Sent.CUT.ordinal()]);
   }
 
-  private int calculateChecksum(byte[] ...data) {
-    int sum = 0;
-    for(byte[] bArray : data) {
-      for(byte b : bArray) {
-        sum += b;
-      }
-    }
+  private void consolidateReceived(InetSocketAddress address, long[] counts) { // Consolida as estatísticas de recebimento
+    Source source = sources.get(address.getAddress(), address.getPort());
+    SequenceWindow receivedSeqNums = source == null ? null : source.receivedSeqNums;
+    System.out.printf("Total de mensagens recebidas: %d%n", counts[Received.RECEIVED.ordinal()]);
+    System.out.printf("Total de mensagens perdidas (Sequence Number não encontrado): %d%n", receivedSeqNums == null ? 0 : Math.max(0, receivedSeqNums.getMissing() - receivedMetrics.total(address, Received.FAILED_INTEGRITY))); // Ambos acumulados desde a criação: os segmentos com checksum inválido não têm número de sequência confiável e já aparecem como faltantes
+    System.out.printf("Total de mensagens duplicadas: %d%n", counts[Received.DUPLICATED.ordinal()]);
+    System.out.printf("Total de mensagens corrompidas/cortadas (checksum falhou): %d%n", counts[Received.FAILED_INTEGRITY.ordinal()]);
+    System.out.printf("Total de mensagens fragmentadas descartadas (incompletas): %d%n", counts[Received.INCOMPLETE.ordinal()]);
+  }
 
-    return sum;
+  private int calculateChecksum(byte[] data, int length) { // Checksum do segmento após o campo de checksum (número de sequência e dados, sem cópias)
+    Checksum checksum = this.checksum.get();
+    checksum.reset();
+    checksum.update(data, 4, length - 4);
+    return (int) checksum.getValue();
   }
 
-  private void sendACK(DatagramPacket p, int seqNumber) throws IOException {  // Envia o ACK
+  private Checksum createChecksum() { // Algoritmo definido no config.json, CRC32C utiliza instruções de hardware quando disponíveis
+    if(config.getChecksum().equalsIgnoreCase("sum")) return new ByteSumChecksum();
+    return new CRC32C();
+  }
+
+  private void sendACK(InetAddress address, int port, int seqNumber) throws IOException {  // Envia o ACK
     DatagramPacket ack = new DatagramPacket("ACK".getBytes(), 3);
-    ack.setAddress(p.getAddress());
-    ack.setPort(p.getPort());
+    ack.setAddress(address);
+    ack.setPort(port);
     this.send(ack, seqNumber);
   }
 
-  private String getMessage(DatagramPacket p) {
-    byte[] data = p.getData();
+  private String getMessage(byte[] data, int length) { // Executado pela thread do log, sobre a cópia do segmento
+    if(length < HEADER_SIZE) return "(segmento sem cabeçalho, " + length + " bytes)"; // Cortado pela simulação de erros
+    return new String(data, HEADER_SIZE, Math.max(length - HEADER_SIZE, 0), StandardCharsets.UTF_8);
+  }
 
-    return new String(Arrays.copyOfRange(data, 8, data.length), StandardCharsets.UTF_8);
+  public long getDataSentCount() { // Segmentos de dados enviados desde a criação do canal (fragmentos contados separadamente)
+    return sentMetrics.total(Sent.DATA);
+  }
+
+  public long getAckedCount() { // ACKs distintos recebidos desde a criação do canal
+    return receivedMetrics.total(Received.ACKED);
   }
 
   public void receiveACK() throws IOException {
-    this.receive(1024);
+    this.receive(config.getMaxSegmentSize());
+  }
+
+  public int getMaxSegmentSize() { // Tamanho do buffer de recebimento: nenhum segmento enviado pelo canal é maior
+    return config.getMaxSegmentSize();
   }
 }
@@ -6,27 +6,39 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.List;
 import java.util.Scanner;
+import java.util.concurrent.atomic.AtomicInteger;
 
-class ParallelSender extends Thread { // Envia os pacotes em paralelo
+class ParallelSender { // Envia os pacotes em paralelo: quantidade fixa de threads retirando as mensagens em ordem, com a taxa limitada pelo canal (sendRate)
   private Channel channel;
-  private DatagramPacket packet;
+  private DatagramPacket[] messages;
+  private AtomicInteger next = new AtomicInteger(); // Próxima mensagem a ser retirada por uma thread
 
-  public ParallelSender(Channel channel, DatagramPacket packet) {
+  public ParallelSender(Channel channel, DatagramPacket[] messages) {
     this.channel = channel;
-    this.packet = packet;
+    this.messages = messages;
   }
-  @Override
-  public void run() {
-    try {
-      send();
-    } catch (IOException e) {
-      System.out.println("Erro ao enviar pacote para o servidor");
-      e.printStackTrace();
+
+  public void send(int workers) throws InterruptedException { // Envia todas as mensagens e aguarda as threads terminarem
+    Thread[] threads = new Thread[Math.min(workers, messages.length)];
+    for(int i = 0 ; i < threads.length ; i++) {
+      threads[i] = new Thread(this::work, "ParallelSender-" + (i + 1));
+      threads[i].start();
+    }
+    for(Thread thread : threads) {
+      thread.join();
     }
   }
 
-  private void send() throws IOException {
-    channel.send(packet);
+  private void work() {
+    int index;
+    while((index = next.getAndIncrement()) < messages.length) {
+      try {
+        channel.send(messages[index]);
+      } catch (IOException e) {
+        System.out.println("Erro ao enviar pacote para o servidor");
+        e.printStackTrace();
+      }
+    }
   }
 }
 
@@ -123,24 +135,25 @@ public class Client { // Cliente UDP
       ACKListener ackListener = new ACKListener(channel);
       ackListener.start();
 
+      long start = System.nanoTime();
       if(parallel) {
-        Thread[] threadList = new Thread[messages.length];
-        for (int i = 0; i < messages.length; i++) { // Envia as mensagens em paralelo
-          threadList[i] = new ParallelSender(channel, messages[i]);
-          threadList[i].start();
-        }
-
-        for(int i = 0; i < threadList.length; i++) { // Aguarda todas as threads terminarem
-          threadList[i].join();
-        }
+        new ParallelSender(channel, messages).send(channel.getSendWorkers()); // Envia as mensagens em paralelo, com sendWorkers threads
       } else {
         for (int i = 0; i < messages.length; i++) { // Envia as mensagens em sequência
           channel.send(messages[i]);
         }
       }
+      double seconds = Math.max(System.nanoTime() - start, 1) / 1e9;
 
       ackListener.join();
 
+      long bytes = 0;
+      for(DatagramPacket message : messages) {
+        bytes += message.getLength();
+      }
+      long segments = channel.getDataSentCount();
+      System.out.printf("Taxa de envio obtida: %.0f mensagens/s, %.0f segmentos/s, %.1f KB/s (%d segmentos em %.0f ms)%n", messages.length / seconds, segments / seconds, bytes / seconds / 1024, segments, seconds * 1000);
+      System.out.printf("Segmentos sem ACK (perdidos na rede ou no buffer do servidor): %d de %d%n", Math.max(segments - channel.getAckedCount(), 0), segments);
       channel.consolidateAll();  // Exibe consolidação das mensagens
     } catch (Exception e) {
       System.out.println("Erro no envio dos pacotes para o servidor");
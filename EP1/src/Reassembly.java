@@ -0,0 +1,134 @@
+import java.net.InetSocketAddress;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class Reassembly { // Remontagem das mensagens fragmentadas: memória limitada e descarte das mensagens incompletas após o prazo
+
+  public interface Listener { // Mensagem incompleta descartada (prazo expirado ou buffer cheio)
+    void discarded(InetSocketAddress source, int messageId, int received, int count);
+  }
+
+  private static class Key { // Mensagem identificada pelo remetente e pelo número de sequência do primeiro fragmento
+    private final InetSocketAddress source;
+    private final int messageId;
+
+    private Key(InetSocketAddress source, int messageId) {
+      this.source = source;
+      this.messageId = messageId;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if(!(other instanceof Key)) return false;
+      Key key = (Key) other;
+      return messageId == key.messageId && source.equals(key.source);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * source.hashCode() + messageId;
+    }
+  }
+
+  private static class Message {
+    private final byte[][] fragments; // Buffers emprestados do pool, devolvidos ao completar ou descartar a mensagem
+    private final int[] lengths;
+    private final long createdAt; // System.nanoTime() do primeiro fragmento recebido
+    private int received = 0;
+    private int size = 0; // Bytes armazenados
+
+    private Message(int count, long createdAt) {
+      this.fragments = new byte[count][];
+      this.lengths = new int[count];
+      this.createdAt = createdAt;
+    }
+  }
+
+  private final long capacity; // Bytes armazenados somando todas as mensagens incompletas
+  private final long timeoutNanos;
+  private final Listener listener;
+  private final BufferPool bufferPool;
+  private final LinkedHashMap<Key, Message> messages = new LinkedHashMap<>(); // Ordem de criação, a mais antiga primeiro
+  private long size = 0;
+
+  public Reassembly(long capacity, long timeoutMS, Listener listener, BufferPool bufferPool) {
+    this.capacity = capacity;
+    this.timeoutNanos = timeoutMS * 1_000_000;
+    this.listener = listener;
+    this.bufferPool = bufferPool;
+  }
+
+  public synchronized byte[] add(InetSocketAddress source, int messageId, int index, int count, byte[] data, int offset, int length) { // Armazena o fragmento, retorna a mensagem completa ao receber o último
+    long now = System.nanoTime();
+    expire(now);
+    Key key = new Key(source, messageId);
+    Message message = messages.get(key);
+    if(message == null) {
+      message = new Message(count, now);
+      messages.put(key, message);
+    }
+    if(index >= message.fragments.length || message.fragments.length != count || message.fragments[index] != null) return null; // Fragmento inconsistente ou repetido
+
+    while(size + length > capacity) { // Buffer cheio: descarta as mensagens mais antigas, inclusive esta se ela sozinha não couber
+      Map.Entry<Key, Message> oldest = messages.entrySet().iterator().next();
+      discard(oldest.getKey(), oldest.getValue());
+      messages.remove(oldest.getKey());
+      if(oldest.getKey().equals(key)) return null;
+    }
+
+    byte[] fragment = bufferPool.lease(length);
+    System.arraycopy(data, offset, fragment, 0, length);
+    message.fragments[index] = fragment;
+    message.lengths[index] = length;
+    message.received++;
+    message.size += length;
+    size += length;
+    if(message.received < count) return null;
+
+    messages.remove(key);
+    size -= message.size;
+    byte[] complete = new byte[message.size];
+    int position = 0;
+    for(int i = 0 ; i < count ; i++) {
+      System.arraycopy(message.fragments[i], 0, complete, position, message.lengths[i]);
+      position += message.lengths[i];
+      bufferPool.release(message.fragments[i]);
+    }
+    return complete;
+  }
+
+  public synchronized void expire() { // Descarta as mensagens incompletas há mais de timeoutMS
+    expire(System.nanoTime());
+  }
+
+  private void expire(long now) {
+    Iterator<Map.Entry<Key, Message>> iterator = messages.entrySet().iterator();
+    while(iterator.hasNext()) {
+      Map.Entry<Key, Message> entry = iterator.next();
+      if(now - entry.getValue().createdAt < timeoutNanos) break; // As seguintes são mais recentes
+      discard(entry.getKey(), entry.getValue());
+      iterator.remove();
+    }
+  }
+
+  public synchronized void clear() { // Descarta todas as mensagens incompletas sem notificar o listener (canal fechado)
+    for(Message message : messages.values()) {
+      release(message);
+    }
+    messages.clear();
+    size = 0;
+  }
+
+  private void discard(Key key, Message message) {
+    size -= message.size;
+    release(message);
+    listener.discarded(key.source, key.messageId, message.received, message.fragments.length);
+  }
+
+  private void release(Message message) {
+    for(byte[] fragment : message.fragments) {
+      bufferPool.release(fragment); // Fragmentos não recebidos são null
+    }
+  }
+}
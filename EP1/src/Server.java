@@ -1,4 +1,6 @@
 import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Scanner;
 
 public class Server { // Servidor UDP
@@ -7,15 +9,21 @@ public class Server { // Servidor UDP
   private static final int DEFAULT_SERVER_TIMEOUT = 10000;
 
   public static void main(String[] args) throws Exception { // Lê a porta do servidor e recebe pacotes
-    System.out.printf("Digite a porta do servidor (%d): ", DEFAULT_SERVER_PORT);
+    System.out.printf("Digite a(s) porta(s) do servidor, separadas por vírgula (%d): ", DEFAULT_SERVER_PORT);
     String serverPortString = sc.nextLine();
-    int serverPort = serverPortString.equals("") ? DEFAULT_SERVER_PORT : Integer.parseInt(serverPortString);
+    String[] serverPorts = serverPortString.equals("") ? new String[] { String.valueOf(DEFAULT_SERVER_PORT) } : serverPortString.split(",");
+
+    if(serverPorts.length > 1) { // Várias portas: uma única thread recebe de todas com um Selector
+      receiveWithSelector(serverPorts);
+      return;
+    }
+    int serverPort = Integer.parseInt(serverPorts[0].trim());
 
 		try (Channel channel = new Channel(serverPort)) {
       channel.setSoTimeout(DEFAULT_SERVER_TIMEOUT);
       while(true) {
       	try {
-          channel.receive(1024); // Recebe o segmento UDP
+          channel.receive(channel.getMaxSegmentSize()); // Recebe o segmento UDP
         } catch (SocketTimeoutException e) {
           System.out.println("Timeout, finalizando servidor.");
           break;
@@ -27,4 +35,22 @@ public class Server { // Servidor UDP
       e.printStackTrace();
     }
   }
+
+  private static void receiveWithSelector(String[] serverPorts) { // Recebe os segmentos de todas as portas em um laço de eventos NIO
+    List<Channel> channels = new ArrayList<>();
+    try (SelectorTransport transport = new SelectorTransport()) {
+      for(String serverPort : serverPorts) {
+        channels.add(new Channel(Integer.parseInt(serverPort.trim()), transport));
+      }
+      transport.run(DEFAULT_SERVER_TIMEOUT); // Processa os datagramas até o timeout sem receber nada
+      System.out.println("Timeout, finalizando servidor.");
+      for(Channel channel : channels) {
+        channel.consolidateAll(); // Exibe consolidação das mensagens de cada porta
+        channel.close();
+      }
+    } catch (Exception e) {
+      System.out.println("Erro no recebiumento de pacotes no servidor");
+      e.printStackTrace();
+    }
+  }
 }
@@ -0,0 +1,31 @@
+import java.util.concurrent.locks.LockSupport;
+
+public class TokenBucket { // Limita a taxa de envio: os tokens são repostos continuamente até a capacidade e quem não os encontra aguarda a sua vez
+  private final double ratePerNano;
+  private final double capacity; // Rajada máxima após um período ocioso
+  private double tokens; // Negativo: débito reservado por quem está aguardando
+  private long lastRefill = System.nanoTime();
+
+  public TokenBucket(double ratePerSecond, double capacity) {
+    this.ratePerNano = ratePerSecond / 1e9;
+    this.capacity = capacity;
+    this.tokens = capacity;
+  }
+
+  public void acquire(long amount) { // Bloqueia até o horário em que os tokens pedidos estão disponíveis (pedidos maiores que a capacidade são atendidos em débito)
+    long waitNanos = reserve(amount);
+    long deadline = System.nanoTime() + waitNanos;
+    while(waitNanos > 0) {
+      LockSupport.parkNanos(this, waitNanos);
+      waitNanos = deadline - System.nanoTime();
+    }
+  }
+
+  private synchronized long reserve(long amount) { // Consome os tokens, retorna quanto tempo aguardar até o débito ser coberto (as reservas saem na ordem de chegada)
+    long now = System.nanoTime();
+    tokens = Math.min(capacity, tokens + (now - lastRefill) * ratePerNano);
+    lastRefill = now;
+    tokens -= amount;
+    return tokens >= 0 ? 0 : (long) Math.ceil(-tokens / ratePerNano);
+  }
+}
@@ -0,0 +1,294 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+
+public class GoodputBenchmark { // Transferências sender/receiver pelo loopback para cada combinação de parâmetros, com os resultados em CSV ou JSON
+  private static final String PORT = "PORT ";
+  private static final String RESULT = "RESULT ";
+  private static final int RECEIVER_POLL_MS = 200;
+  private static final int POINT_TIMEOUT_SECONDS = 300; // Transferências que não terminam neste prazo são registradas como timeout
+
+  private static final Gson gson = new Gson();
+  private static final String CLASS_PATH = Arrays.stream(System.getProperty("java.class.path").split(File.pathSeparator)) // Caminhos absolutos, os processos executam na pasta do ponto
+    .map((String entry) -> Path.of(entry).toAbsolutePath().toString()).collect(Collectors.joining(File.pathSeparator));
+
+  public static void main(String[] args) throws Exception {
+    if(args.length > 0 && args[0].equals("receiver")) {
+      receiver(Integer.parseInt(args[1]));
+    } else if(args.length > 0 && args[0].equals("sender")) {
+      sender(Integer.parseInt(args[1]), Integer.parseInt(args[2]), Integer.parseInt(args[3]));
+    } else {
+      sweep(args);
+    }
+  }
+
+  private static void sweep(String[] args) throws Exception { // Argumentos chave=valor1,valor2,...: chaves do config.json são variadas, as demais controlam a execução
+    Map<String, String[]> parameters = new LinkedHashMap<>();
+    parameters.put("windowSize", new String[] { "10", "50" });
+    parameters.put("timeout", new String[] { "100", "500" });
+    parameters.put("eliminateProbability", new String[] { "0", "5" });
+    parameters.put("delayMS", new String[] { "0", "80" });
+    parameters.put("messageSize", new String[] { "64", "1012" });
+    int messages = 1000;
+    int repeat = 1;
+    String output = "goodput.csv";
+    for(String arg : args) {
+      String[] keyValue = arg.split("=", 2);
+      if(keyValue.length != 2) throw new IllegalArgumentException("Argumento inválido (esperado chave=valor): " + arg);
+      switch(keyValue[0]) {
+        case "messages" -> messages = Integer.parseInt(keyValue[1]);
+        case "repeat" -> repeat = Integer.parseInt(keyValue[1]);
+        case "output" -> output = keyValue[1];
+        default -> parameters.put(keyValue[0], keyValue[1].split(","));
+      }
+    }
+
+    JsonObject baseConfig = gson.fromJson(Files.readString(Path.of("config.json")), JsonObject.class); // Demais opções do canal vêm do config.json da pasta atual
+    baseConfig.addProperty("logLevel", "off"); // O log dos pacotes distorce a medição, pode ser reativado como parâmetro
+    if(!baseConfig.has("seed")) baseConfig.addProperty("seed", 1); // Mesmas falhas a cada execução
+
+    List<Map<String, Object>> results = new ArrayList<>();
+    List<String> keys = new ArrayList<>(parameters.keySet());
+    int[] indexes = new int[keys.size()];
+    do {
+      Map<String, String> point = new LinkedHashMap<>();
+      for(int i = 0 ; i < keys.size() ; i++) {
+        point.put(keys.get(i), parameters.get(keys.get(i))[indexes[i]]);
+      }
+      for(int r = 1 ; r <= repeat ; r++) {
+        Map<String, Object> result = run(baseConfig, point, messages, r);
+        results.add(result);
+        System.out.println(result);
+        write(output, results); // Reescrito a cada ponto, uma varredura interrompida mantém os resultados anteriores
+      }
+    } while(next(indexes, keys, parameters));
+    System.out.printf("%d pontos gravados em %s%n", results.size(), output);
+  }
+
+  private static boolean next(int[] indexes, List<String> keys, Map<String, String[]> parameters) { // Próxima combinação (produto cartesiano dos valores)
+    for(int i = indexes.length - 1 ; i >= 0 ; i--) {
+      if(++indexes[i] < parameters.get(keys.get(i)).length) return true;
+      indexes[i] = 0;
+    }
+    return false;
+  }
+
+  private static Map<String, Object> run(JsonObject baseConfig, Map<String, String> point, int messages, int repetition) throws Exception { // Executa uma transferência em processos separados, cada um com o config.json do ponto
+    JsonObject config = baseConfig.deepCopy();
+    Map<String, Object> result = new LinkedHashMap<>();
+    int messageSize = 1012;
+    for(Map.Entry<String, String> entry : point.entrySet()) {
+      Object value = parseValue(entry.getValue());
+      result.put(entry.getKey(), value);
+      if(entry.getKey().equals("messageSize")) {
+        messageSize = ((Long) value).intValue();
+      } else {
+        config.add(entry.getKey(), gson.toJsonTree(value));
+      }
+    }
+    Path directory = Files.createTempDirectory("goodput");
+    Files.writeString(directory.resolve("config.json"), gson.toJson(config));
+
+    result.put("messages", messages);
+    result.put("repetition", repetition);
+    Child receiver = new Child(directory, "receiver", String.valueOf(messageSize));
+    try {
+      int port = receiver.port.get(30, TimeUnit.SECONDS);
+      Child sender = new Child(directory, "sender", String.valueOf(port), String.valueOf(messages), String.valueOf(messageSize));
+      JsonObject sent;
+      try {
+        sent = sender.result.get(POINT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+      } finally {
+        sender.process.destroyForcibly();
+      }
+      JsonObject received = receiver.stop();
+
+      double seconds = sent.get("completionNanos").getAsLong() / 1e9;
+      long retransmissions = sent.get("retransmissions").getAsLong();
+      result.put("status", "ok");
+      result.put("completionMs", Math.round(seconds * 1000));
+      result.put("goodputMbps", Math.round((double) messages * messageSize * 8 / seconds / 1e4) / 100.0);
+      result.put("retransmissions", retransmissions);
+      result.put("retransmissionRatio", Math.round((double) retransmissions / messages * 10000) / 10000.0);
+      result.put("senderCpuMs", sent.get("cpuNanos").getAsLong() / 1_000_000);
+      result.put("receiverCpuMs", received == null ? -1 : received.get("cpuNanos").getAsLong() / 1_000_000);
+    } catch (TimeoutException e) {
+      result.put("status", "timeout");
+    } catch (ExecutionException e) {
+      result.put("status", "failed");
+      System.out.println(e.getCause().getMessage());
+    } finally {
+      receiver.process.destroyForcibly();
+      Files.deleteIfExists(directory.resolve("config.json"));
+      Files.deleteIfExists(directory);
+    }
+    return result;
+  }
+
+  private static Object parseValue(String value) { // Valores numéricos e booleanos mantêm o tipo no config.json e nos resultados
+    if(value.equals("true") || value.equals("false")) return Boolean.parseBoolean(value);
+    try {
+      return Long.parseLong(value);
+    } catch (NumberFormatException e) {
+      try {
+        return Double.parseDouble(value);
+      } catch (NumberFormatException e2) {
+        return value;
+      }
+    }
+  }
+
+  private static void write(String output, List<Map<String, Object>> results) throws IOException {
+    if(output.endsWith(".json")) {
+      Files.writeString(Path.of(output), new GsonBuilder().setPrettyPrinting().create().toJson(results));
+      return;
+    }
+    List<String> columns = new ArrayList<>(); // Colunas de todos os pontos, pontos com falha não têm as medições
+    for(Map<String, Object> result : results) {
+      for(String column : result.keySet()) {
+        if(!columns.contains(column)) columns.add(column);
+      }
+    }
+    StringBuilder csv = new StringBuilder(String.join(",", columns)).append('\n');
+    for(Map<String, Object> result : results) {
+      for(int i = 0 ; i < columns.size() ; i++) {
+        if(i > 0) csv.append(',');
+        Object value = result.get(columns.get(i));
+        if(value != null) csv.append(value);
+      }
+      csv.append('\n');
+    }
+    Files.writeString(Path.of(output), csv);
+  }
+
+  private static class Child { // Processo sender ou receiver, executado na pasta do config.json do ponto
+    private final Process process;
+    private final CompletableFuture<Integer> port = new CompletableFuture<>();
+    private final CompletableFuture<JsonObject> result = new CompletableFuture<>();
+
+    private Child(Path directory, String... args) throws IOException {
+      List<String> command = new ArrayList<>(List.of(ProcessHandle.current().info().command().orElse("java"), "-cp", CLASS_PATH, GoodputBenchmark.class.getName()));
+      command.addAll(List.of(args));
+      this.process = new ProcessBuilder(command).directory(directory.toFile()).redirectErrorStream(true).start();
+      Thread reader = new Thread(this::read, "GoodputBenchmark-" + args[0]); // Consome a saída para o processo nunca bloquear na escrita
+      reader.setDaemon(true);
+      reader.start();
+    }
+
+    private void read() {
+      StringBuilder output = new StringBuilder();
+      try (BufferedReader in = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+        String line;
+        while((line = in.readLine()) != null) {
+          if(line.startsWith(PORT)) {
+            port.complete(Integer.parseInt(line.substring(PORT.length())));
+          } else if(line.startsWith(RESULT)) {
+            result.complete(gson.fromJson(line.substring(RESULT.length()), JsonObject.class));
+          } else {
+            output.append(line).append('\n');
+          }
+        }
+      } catch (IOException e) {
+        // Processo encerrado
+      }
+      IllegalStateException exited = new IllegalStateException("processo encerrado sem resultado: " + output.toString().strip());
+      port.completeExceptionally(exited);
+      result.completeExceptionally(exited);
+    }
+
+    private JsonObject stop() throws InterruptedException { // Pede ao receiver que encerre e informe o tempo de CPU
+      try (OutputStream in = process.getOutputStream()) {
+        in.write('\n');
+      } catch (IOException e) {
+        return null;
+      }
+      try {
+        return result.get(10, TimeUnit.SECONDS);
+      } catch (ExecutionException | TimeoutException e) {
+        return null;
+      }
+    }
+  }
+
+  private static void receiver(int messageSize) throws IOException { // Recebe até o processo principal escrever uma linha na entrada padrão
+    try (ReliableChannel channel = new ReliableChannel(0)) {
+      channel.setSoTimeout(RECEIVER_POLL_MS);
+      Thread stop = new Thread(() -> {
+        try {
+          System.in.read();
+        } catch (IOException e) {
+          // Entrada fechada, encerra da mesma forma
+        }
+      });
+      stop.setDaemon(true);
+      stop.start();
+      System.out.println(PORT + channel.getLocalPort());
+      long cpuStart = getProcessCpuTime();
+      while(stop.isAlive()) {
+        try {
+          channel.receive(Math.max(1024, messageSize + 64)); // Espaço para o header e os intervalos de SACK
+        } catch (SocketTimeoutException e) {
+          // Verifica novamente o pedido de encerramento
+        }
+      }
+      printResult(Map.of("cpuNanos", getProcessCpuTime() - cpuStart));
+    }
+    System.exit(0);
+  }
+
+  private static void sender(int receiverPort, int messageCount, int messageSize) throws IOException { // Envia as mensagens e informa o tempo até a confirmação de todas
+    byte[] message = new byte[messageSize];
+    new Random(1).nextBytes(message);
+    List<DatagramPacket> messages = new ArrayList<>();
+    for(int i = 0 ; i < messageCount ; i++) {
+      messages.add(new DatagramPacket(message, messageSize, InetAddress.getLoopbackAddress(), receiverPort));
+    }
+    try (ReliableChannel channel = new ReliableChannel(0)) {
+      long cpuStart = getProcessCpuTime();
+      long start = System.nanoTime();
+      channel.send(messages);
+      long completion = System.nanoTime() - start;
+      Map<String, Long> result = new LinkedHashMap<>();
+      result.put("completionNanos", completion);
+      result.put("cpuNanos", getProcessCpuTime() - cpuStart);
+      result.put("sent", channel.getSentCount());
+      result.put("retransmissions", channel.getRetransmissionCount());
+      printResult(result);
+    }
+    System.exit(0);
+  }
+
+  private static void printResult(Map<String, Long> result) {
+    PrintWriter out = new PrintWriter(System.out, true, StandardCharsets.UTF_8);
+    out.println(RESULT + gson.toJson(result));
+  }
+
+  private static long getProcessCpuTime() {
+    return ((com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean()).getProcessCpuTime();
+  }
+}
@@ -1,4 +1,7 @@
 import java.net.SocketTimeoutException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Scanner;
 
 public class Receiver {
@@ -8,18 +11,36 @@ public class Receiver {
 
   public static void main(String[] args) throws Exception { // Lê a porta e recebe pacotes
     long start = System.currentTimeMillis();
-    System.out.printf("Digite a porta do receiver (%d): ", DEFAULT_RECEIVER_PORT);
+    System.out.printf("Digite a(s) porta(s) do receiver, separadas por vírgula (%d): ", DEFAULT_RECEIVER_PORT);
     String receiverPortString = sc.nextLine();
-    int receiverPort = receiverPortString.equals("") ? DEFAULT_RECEIVER_PORT : Integer.parseInt(receiverPortString);
+    String[] receiverPorts = receiverPortString.equals("") ? new String[] { String.valueOf(DEFAULT_RECEIVER_PORT) } : receiverPortString.split(",");
+
+    if(receiverPorts.length > 1) { // Várias portas: uma única thread recebe de todas com um Selector
+      receiveWithSelector(receiverPorts, start);
+      return;
+    }
+    int receiverPort = Integer.parseInt(receiverPorts[0].trim());
+
+    System.out.print("Digite o caminho do arquivo para receber um arquivo (vazio para receber mensagens): ");
+    String filePath = sc.nextLine();
 
 		try (ReliableChannel channel = new ReliableChannel(receiverPort)) {
       channel.setSoTimeout(DEFAULT_RECEIVER_TIMEOUT);
-      while(true) {
-      	try {
-          channel.receive(1024); // Recebe o segmento UDP
+      if(!filePath.equals("")) { // Os segmentos são escritos direto no arquivo mapeado, na posição de cada um
+        try {
+          long size = channel.receiveFile(Path.of(filePath));
+          System.out.println("Arquivo recebido: " + size + " bytes");
         } catch (SocketTimeoutException e) {
-          System.out.println("Timeout, finalizando receiver.");
-          break;
+          System.out.println("Timeout, arquivo incompleto.");
+        }
+      } else {
+        while(true) {
+          try {
+            channel.receive(1024); // Recebe o segmento UDP
+          } catch (SocketTimeoutException e) {
+            System.out.println("Timeout, finalizando receiver.");
+            break;
+          }
         }
       }
       channel.consolidateAll(); // Exibe consolidação das mensagens
@@ -31,4 +52,25 @@ public class Receiver {
       e.printStackTrace();
     }
   }
+
+  private static void receiveWithSelector(String[] receiverPorts, long start) { // Recebe os segmentos de todas as portas em um laço de eventos NIO
+    List<ReliableChannel> channels = new ArrayList<>();
+    try (SelectorTransport transport = new SelectorTransport()) {
+      for(String receiverPort : receiverPorts) {
+        channels.add(new ReliableChannel(Integer.parseInt(receiverPort.trim()), transport));
+      }
+      transport.run(DEFAULT_RECEIVER_TIMEOUT); // Processa os datagramas até o timeout sem receber nada
+      System.out.println("Timeout, finalizando receiver.");
+      for(ReliableChannel channel : channels) {
+        channel.consolidateAll(); // Exibe consolidação das mensagens de cada porta
+        channel.close();
+      }
+      long finish = System.currentTimeMillis();
+      long timeElapsed = finish - start;
+      System.out.println("Tempo total de execução: " + timeElapsed + "ms");
+    } catch (Exception e) {
+      System.out.println("Erro no recebimento de pacotes no receiver");
+      e.printStackTrace();
+    }
+  }
 }
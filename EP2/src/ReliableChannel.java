@@ -1,33 +1,74 @@
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
 import java.net.SocketException;
+import java.net.SocketTimeoutException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collections;
+import java.nio.file.StandardOpenOption;
 import java.util.List;
-import java.util.Map;
-import java.util.Random;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32C;
+import java.util.zip.Checksum;
 
 import com.google.gson.Gson;
 
-public class ReliableChannel extends DatagramSocket { // Canal de comunicação
+public class ReliableChannel extends DatagramSocket implements SelectorTransport.Endpoint { // Canal de comunicação
+
+  public interface MessageListener { // Mensagem entregue em ordem, já separada do lote (os dados são válidos apenas durante a chamada)
+    void message(InetAddress address, int port, byte[] data, int offset, int length);
+  }
 
   private class Config { // Classe para representar arquivo de configuração
     private int eliminateProbability;
     private int delayProbability;
     private int delayMS;
+    private Long seed; // Semente dos sorteios de falhas: execuções com a mesma semente repetem a mesma sequência de falhas (ausente: sorteio diferente a cada execução)
+    private String lossModel; // Modelo de eliminação: "uniform" (eliminateProbability por pacote), "gilbert-elliott" (rajadas) ou "trace" (arquivo lossTrace)
+    private double burstStartProbability; // Gilbert-Elliott: probabilidade (%) de iniciar uma rajada a cada pacote
+    private double burstEndProbability; // Gilbert-Elliott: probabilidade (%) de encerrar a rajada a cada pacote
+    private double burstLossProbability; // Gilbert-Elliott: probabilidade (%) de eliminação durante a rajada (fora dela vale eliminateProbability)
+    private String lossTrace; // Arquivo com a sequência de eliminações (1 elimina, 0 entrega), repetida ao chegar ao fim
+    private int delayJitterMS; // Variação aleatória do atraso, para mais ou para menos (pacotes atrasados podem chegar fora de ordem)
     private int duplicateProbability;
     private int corruptProbability;
     private int cutProbability;
     private int cutBytes;
     private int windowSize;
-    private int timeout;
+    private int timeout; // Timeout inicial, utilizado até a primeira medição de RTT
+    private int minTimeout;
+    private int maxTimeout;
+    private String protocol; // "GBN" (Go-Back-N) ou "SR" (Selective Repeat)
+    private boolean congestionControl; // Habilita a janela de congestionamento (windowSize passa a ser o limite superior)
+    private int delayedAckCount; // Go back n: quantidade de pacotes em ordem confirmados por um único ACK cumulativo (0 ou 1 desabilita)
+    private int delayedAckMS; // Go back n: tempo máximo que um ACK pode ser atrasado
+    private boolean sack; // ACKs carregam os intervalos de pacotes já armazenados pelo receiver (selective acknowledgment)
+    private String executor; // Execução do envio dos ACKs: "virtual" (virtual threads) ou "pool" (pool limitado de threads)
+    private int executorThreads; // Quantidade de threads do pool
+    private String checksum; // Algoritmo de checksum dos segmentos: "crc32c" ou "sum" (soma dos bytes)
+    private String logLevel; // Nível do log de pacotes: "off", "warn" (falhas), "info" (todos os pacotes) ou "debug" (pacotes e timers)
+    private String logFile; // Arquivo do log de pacotes (vazio: console)
+    private int logBufferSize; // Quantidade de eventos de log pendentes antes de começar a descartar
+    private int batchBytes; // Tamanho máximo de um lote de mensagens pequenas, incluindo os 2 bytes de tamanho de cada mensagem (0 desabilita o agrupamento)
+    private int batchDelayMS; // Tempo máximo que a primeira mensagem do lote aguarda as seguintes (0: o lote é enviado apenas cheio ou em flush)
+    private int bufferPoolSize; // Quantidade de buffers devolvidos mantidos para reutilização
+    private boolean bufferLeakDetection; // Registra onde cada buffer foi emprestado e exibe, ao fechar o canal, os que não foram devolvidos
+    private Integer connectionIdleMS; // Tempo sem pacotes após o qual o estado de um remetente e os seus contadores são descartados (0 mantém para sempre)
   
     public int getEliminateProbability() {
       return eliminateProbability;
@@ -38,6 +79,27 @@ public class ReliableChannel extends DatagramSocket { // Canal de comunicação
     public int getDelayMS() {
       return delayMS;
     }
+    public int getDelayJitterMS() {
+      return delayJitterMS;
+    }
+    public Long getSeed() {
+      return seed;
+    }
+    public String getLossModel() {
+      return lossModel == null ? "uniform" : lossModel;
+    }
+    public double getBurstStartProbability() {
+      return burstStartProbability;
+    }
+    public double getBurstEndProbability() {
+      return burstEndProbability;
+    }
+    public double getBurstLossProbability() {
+      return burstLossProbability;
+    }
+    public String getLossTrace() {
+      return lossTrace;
+    }
     public int getDuplicateProbability() {
       return duplicateProbability;
     }
@@ -56,6 +118,60 @@ public class ReliableChannel extends DatagramSocket { // Canal de comunicação
     public int getTimeout() {
       return timeout;
     }
+    public int getMinTimeout() {
+      return minTimeout == 0 ? 1 : minTimeout;
+    }
+    public int getMaxTimeout() {
+      return maxTimeout == 0 ? 60000 : maxTimeout;
+    }
+    public String getProtocol() {
+      return protocol == null ? "GBN" : protocol;
+    }
+    public boolean isCongestionControl() {
+      return congestionControl;
+    }
+    public int getDelayedAckCount() {
+      return delayedAckCount;
+    }
+    public int getDelayedAckMS() {
+      return delayedAckMS;
+    }
+    public boolean isSack() {
+      return sack;
+    }
+    public String getExecutor() {
+      return executor == null ? "pool" : executor;
+    }
+    public int getExecutorThreads() {
+      return executorThreads == 0 ? 32 : executorThreads;
+    }
+    public String getChecksum() {
+      return checksum == null ? "crc32c" : checksum;
+    }
+    public String getLogLevel() {
+      return logLevel == null ? "debug" : logLevel;
+    }
+    public String getLogFile() {
+      return logFile == null ? "" : logFile;
+    }
+    public int getLogBufferSize() {
+      return logBufferSize == 0 ? 8192 : logBufferSize;
+    }
+    public int getBatchBytes() {
+      return Math.min(batchBytes, MAX_SEGMENT_SIZE - HEADER_SIZE);
+    }
+    public int getBatchDelayMS() {
+      return batchDelayMS;
+    }
+    public int getBufferPoolSize() {
+      return bufferPoolSize == 0 ? 1024 : bufferPoolSize;
+    }
+    public boolean isBufferLeakDetection() {
+      return bufferLeakDetection;
+    }
+    public int getConnectionIdleMS() {
+      return connectionIdleMS == null ? 300000 : connectionIdleMS;
+    }
   }
 
   private class ACKListener extends Thread { // Recebe os ACKs em paralelo
@@ -76,67 +192,378 @@ public class ReliableChannel extends DatagramSocket { // Canal de comunicação
     }
   
     private void receiveACK() throws IOException {
-      while (this.channel.base <= this.channel.sendingDataPackets.size()) {
+      while (!this.channel.closing) { // Ouve os ACKs até o início do fechamento do canal
         try {
           channel.receiveACK();
+        } catch (SocketTimeoutException e) {
+          continue;
         } catch (Exception e) {
-          e.printStackTrace();
+          if(!this.channel.closing) e.printStackTrace();
         }
       }
     }
   }
 
-  private class Timer extends Thread { // Timer para reenviar pacotes
-    private int packetNumber;
-    private ReliableChannel channel;
-    private Config config;
-  
-    public Timer(int packetNumber, Config config, ReliableChannel channel) {
-      this.packetNumber = packetNumber;
-      this.config = config;
-      this.channel = channel;
+  private class ReliableOutputStream extends OutputStream { // Fluxo de saída: segmenta os bytes escritos conforme a janela de envio permite
+    private InetAddress address;
+    private int port;
+    private byte[] segment = new byte[MAX_SEGMENT_SIZE - HEADER_SIZE]; // Dados do próximo segmento
+    private int position = 0;
+    private boolean closed = false;
+
+    public ReliableOutputStream(InetAddress address, int port) {
+      this.address = address;
+      this.port = port;
     }
-  
-    public int getPacketNumber() {
-      return packetNumber;
+
+    @Override
+    public void write(int b) throws IOException {
+      segment[position++] = (byte) b;
+      if(position == segment.length) flushSegment();
     }
-  
+
     @Override
-    public void run() {
-      try {
-        Thread.sleep(config.getTimeout());
-        this.channel.timeout(this.packetNumber);
-        this.channel.timer = null;
-      } catch (InterruptedException e) {
-        System.out.println(greenText("Timer para ACK " + this.getPacketNumber() + " parado"));
+    public void write(byte[] b, int off, int len) throws IOException {
+      while(len > 0) {
+        int count = Math.min(len, segment.length - position);
+        System.arraycopy(b, off, segment, position, count);
+        position += count;
+        off += count;
+        len -= count;
+        if(position == segment.length) flushSegment();
+      }
+    }
+
+    @Override
+    public void flush() throws IOException { // Envia o segmento parcial, sem aguardar os ACKs
+      flushSegment();
+    }
+
+    @Override
+    public void close() throws IOException { // Envia o FIN e aguarda a confirmação de todos os segmentos
+      if(closed) return;
+      closed = true;
+      flushSegment();
+      synchronized(sendLock) {
+        ReliableChannel.this.flush(); // Mensagens enfileiradas por queue() depois do último segmento saem antes do FIN
+        enqueueSegment(segment, 0, 0, address, port, FIN);
       }
+      waitForAcks();
+    }
+
+    private void flushSegment() throws IOException {
+      if(position == 0) return;
+      synchronized(sendLock) {
+        ReliableChannel.this.flush(); // O lote pendente de queue() foi escrito antes: sai antes do segmento do fluxo
+        enqueueSegment(segment, 0, position, address, port, DATA);
+      }
+      position = 0;
     }
   }
 
-  private class ACKSender extends Thread { // Envia os ACKs em paralelo
+  private class ReliableInputStream extends InputStream { // Fluxo de entrada: entrega os bytes dos segmentos em ordem
+    private byte[] pending = new byte[4 * MAX_SEGMENT_SIZE]; // Bytes entregues ainda não lidos (buffer circular, cresce se a aplicação não acompanhar)
+    private int readPosition = 0;
+    private int pendingCount = 0;
+    private final byte[] single = new byte[1]; // Buffer de read()
+    private volatile boolean finished = false; // FIN entregue
+    private Connection connection; // Remetente do fluxo (o primeiro a entregar dados)
+
+    @Override
+    public int read() throws IOException {
+      return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if(len == 0) return 0;
+      int count;
+      while((count = take(b, off, len)) == 0) {
+        if(finished) return -1; // O FIN é entregue depois de todos os dados
+        receive(MAX_SEGMENT_SIZE); // Recebe segmentos até que algum seja entregue
+      }
+      return count;
+    }
+
+    @Override
+    public synchronized int available() {
+      return pendingCount;
+    }
+
+    @Override
+    public void close() throws IOException {
+      if(finished) awaitSilence();
+    }
+
+    private synchronized boolean accepts(Connection connection) {
+      if(this.connection == null) this.connection = connection;
+      return this.connection == connection;
+    }
+
+    private synchronized boolean isBoundTo(Connection connection) {
+      return this.connection == connection;
+    }
+
+    private synchronized void deliver(byte[] data, int offset, int length) { // Copia os dados do segmento entregue para o buffer circular
+      if(pendingCount + length > pending.length) grow(pendingCount + length);
+      int writePosition = (readPosition + pendingCount) % pending.length;
+      int first = Math.min(length, pending.length - writePosition);
+      System.arraycopy(data, offset, pending, writePosition, first);
+      System.arraycopy(data, offset + first, pending, 0, length - first);
+      pendingCount += length;
+    }
+
+    private synchronized int take(byte[] b, int off, int len) { // Copia até len bytes pendentes, retorna a quantidade
+      int count = Math.min(len, pendingCount);
+      int first = Math.min(count, pending.length - readPosition);
+      System.arraycopy(pending, readPosition, b, off, first);
+      System.arraycopy(pending, 0, b, off + first, count - first);
+      readPosition = (readPosition + count) % pending.length;
+      pendingCount -= count;
+      return count;
+    }
+
+    private void grow(int capacity) {
+      byte[] grown = new byte[Math.max(capacity, 2 * pending.length)];
+      int count = take(grown, 0, pendingCount);
+      pending = grown;
+      readPosition = 0;
+      pendingCount = count;
+    }
+
+    private void finish() {
+      finished = true;
+    }
+  }
+
+  private class FileReceiver { // Recepção de arquivo: os dados de cada segmento são escritos direto no arquivo mapeado, na posição dada pelo número de sequência
+    private FileChannel file;
+    private Connection connection; // Remetente do arquivo (o primeiro a entregar dados)
+    private MappedByteBuffer[] regions; // Regiões mapeadas sob demanda, liberadas após a entrega em ordem
+    private long size = -1; // Tamanho informado pelo segmento FILE (-1: ainda não entregue)
+    private int firstSeqNum; // Número de sequência do primeiro segmento de dados
+    private volatile boolean finished = false; // FIN entregue
+
+    public FileReceiver(Path path) throws IOException {
+      this.file = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    private synchronized boolean accepts(Connection connection) {
+      if(this.connection == null) this.connection = connection;
+      return this.connection == connection;
+    }
+
+    private synchronized boolean isBoundTo(Connection connection) {
+      return this.connection == connection;
+    }
+
+    private synchronized void deliver(DatagramPacket p) throws IOException { // Segmento entregue em ordem
+      byte[] data = p.getData();
+      int segmentType = readInt(data, 8);
+      int seqNum = readInt(data, 4);
+      if(segmentType == FILE) {
+        start(((long) readInt(data, HEADER_SIZE) << 32) | (readInt(data, HEADER_SIZE + 4) & 0xFFFFFFFFL), seqNum);
+      } else if(segmentType == FIN) {
+        finished = true;
+      } else if(write(seqNum, data, HEADER_SIZE, p.getLength() - HEADER_SIZE)) { // Segmentos armazenados fora de ordem já foram escritos, chegam aqui sem dados
+        int region = (int) (position(seqNum) / FILE_REGION_SIZE);
+        if(region > 0) regions[region - 1] = null; // Região anterior completa, o mapeamento é liberado pelo GC
+      }
+    }
+
+    private void start(long size, int seqNum) throws IOException { // Segmento FILE: pré-aloca o arquivo com o tamanho informado
+      this.size = size;
+      this.firstSeqNum = seqNum + 1;
+      this.regions = new MappedByteBuffer[(int) ((size + FILE_REGION_SIZE - 1) / FILE_REGION_SIZE)];
+      if(size > 0) file.write(ByteBuffer.wrap(new byte[1]), size - 1);
+    }
+
+    private synchronized boolean write(int seqNum, byte[] data, int offset, int length) throws IOException { // Escreve os dados na posição do segmento, retorna false se a posição ainda não é conhecida
+      if(size < 0) return false;
+      long position = position(seqNum);
+      if(position < 0 || position + length > size) return true; // Fora do arquivo, ignora
+      int index = (int) (position / FILE_REGION_SIZE);
+      if(regions[index] == null) {
+        long start = (long) index * FILE_REGION_SIZE;
+        regions[index] = file.map(FileChannel.MapMode.READ_WRITE, start, Math.min(FILE_REGION_SIZE, size - start));
+      }
+      regions[index].put((int) (position % FILE_REGION_SIZE), data, offset, length);
+      return true;
+    }
+
+    private long position(int seqNum) {
+      return (long) (seqNum - firstSeqNum) * FILE_SEGMENT_SIZE;
+    }
+
+    private synchronized void close() throws IOException {
+      regions = null;
+      file.close();
+    }
+  }
+
+  private class RttEstimator { // Estima o RTT a partir dos ACKs e calcula o timeout de retransmissão (RTO)
+    private double srtt = -1; // RTT suavizado
+    private double rttvar = 0; // Variação do RTT
+    private long rto; // RTO calculado a partir das medições
+    private int backoffs = 0; // Quantidade de vezes que o RTO foi dobrado desde o último ACK de dados novos
+
+    public RttEstimator() {
+      this.rto = clamp(config.getTimeout());
+    }
+
+    public synchronized void addSample(double rttMS) { // Nova medição (nunca de pacotes retransmitidos - algoritmo de Karn)
+      if(srtt < 0) {
+        srtt = rttMS;
+        rttvar = rttMS / 2;
+      } else {
+        rttvar = 0.75 * rttvar + 0.25 * Math.abs(srtt - rttMS);
+        srtt = 0.875 * srtt + 0.125 * rttMS;
+      }
+      rto = clamp((long) Math.ceil(srtt + 4 * rttvar));
+    }
+
+    public synchronized void backoff() { // Dobra o RTO após um timeout (backoff exponencial)
+      if(getRto() < config.getMaxTimeout()) backoffs++;
+    }
+
+    public synchronized void resetBackoff() { // Um ACK de dados novos encerra o backoff, mesmo sem amostra válida de RTT
+      backoffs = 0;
+    }
+
+    public synchronized long getRto() {
+      return clamp(rto << Math.min(backoffs, 30));
+    }
+
+    public synchronized double getSrtt() {
+      return srtt;
+    }
+
+    public synchronized double getRttvar() {
+      return rttvar;
+    }
+
+    private long clamp(long value) {
+      return Math.min(config.getMaxTimeout(), Math.max(config.getMinTimeout(), value));
+    }
+  }
+
+  private class CongestionWindow { // Janela de congestionamento: slow start, congestion avoidance e redução multiplicativa nas perdas
+    private double cwnd = 1; // Tamanho da janela em pacotes
+    private double ssthresh; // Limiar entre slow start e congestion avoidance
+    private int recoverySeqNum = 0; // Perdas de pacotes enviados antes da última redução pertencem ao mesmo evento de perda
+
+    public CongestionWindow() {
+      this.ssthresh = config.getWindowSize();
+    }
+
+    public synchronized void onAck(int newlyAcked) { // Cresce a janela a cada ACK de dados novos
+      for(int i = 0 ; i < newlyAcked ; i++) {
+        if(cwnd < ssthresh) {
+          cwnd += 1; // Slow start: dobra a cada RTT
+        } else {
+          cwnd += 1 / cwnd; // Congestion avoidance: aumenta um pacote a cada RTT
+        }
+      }
+      cwnd = Math.min(cwnd, config.getWindowSize());
+    }
+
+    public synchronized void onLoss(int seqNum, int nextSeqNum) { // Reduz a janela ao detectar perda (timeout)
+      if(seqNum < recoverySeqNum) return; // Já reduzida para este evento de perda
+      ssthresh = Math.max(cwnd / 2, 2);
+      cwnd = 1;
+      recoverySeqNum = nextSeqNum;
+    }
+
+    public synchronized int getWindow() {
+      return (int) Math.min(Math.floor(cwnd), config.getWindowSize());
+    }
+
+    public synchronized double getCwnd() {
+      return cwnd;
+    }
+
+    public synchronized double getSsthresh() {
+      return ssthresh;
+    }
+  }
+
+  private class Connection { // Estado de recepção de um remetente (endereço e porta), permite receber de vários remetentes ao mesmo tempo
+    private InetAddress address;
+    private int port;
+    private SequenceWindow receivedSeqNums = new SequenceWindow(Math.max(1024, 4 * config.getWindowSize())); // Números de sequência recebidos do remetente (janela maior que a de reordenação)
+    private int expectedSeqNum = 1;
+    private byte[][] receiveBuffer = new byte[config.getWindowSize()][]; // Buffer do destinatário para pacotes fora de ordem (selective repeat ou SACK), na posição do número de sequência (trava dos pacotes armazenados)
+    private int[] receiveLengths = new int[config.getWindowSize()];
+    private int bufferedCount = 0;
+    private DatagramPacket bufferedPacket; // Reutilizado na entrega dos pacotes armazenados
+    private Object delayedAckLock = new Object(); // Protege o ACK atrasado (nunca é mantido ao chamar a roda de timers)
+    private TimerWheel.Timeout delayedAckTimer = new TimerWheel.Timeout(seqNum -> flushDelayedAck(this)); // Prazo máximo do ACK atrasado
+    private int pendingAckSeqNum; // Último pacote em ordem ainda não confirmado (ACK atrasado)
+    private int pendingAckCount = 0;
+    private volatile long lastActivity = System.nanoTime(); // Último pacote recebido do remetente
+    private volatile boolean evicted = false; // Removida por inatividade: um novo pacote do remetente cria outra conexão
+    private TimerWheel.Timeout idleTimer = new TimerWheel.Timeout(id -> executor.execute(() -> evictIfIdle(this))); // Verifica a inatividade a cada connectionIdleMS (não é rearmado a cada pacote)
+
+    private ACKSender ackSender = new ACKSender(ReliableChannel.this, this);
+
+    public Connection(InetAddress address, int port) {
+      this.address = address;
+      this.port = port;
+      this.bufferedPacket = new DatagramPacket(new byte[0], 0, address, port);
+    }
+
+    public boolean matches(DatagramPacket p) {
+      return this.port == p.getPort() && this.address.equals(p.getAddress());
+    }
+  }
+
+  private class ACKSender implements Runnable { // Envia em ordem os ACKs de um remetente, reutilizado: no máximo uma tarefa por remetente no executor
     private ReliableChannel channel;
-    private int seqNumber;
-    private DatagramPacket p;
-  
-    public ACKSender(ReliableChannel channel, int seqNumber, DatagramPacket p) {
+    private Connection connection;
+    private int[] seqNumbers = new int[2 * config.getWindowSize()]; // ACKs aguardando o envio (buffer circular)
+    private int head = 0;
+    private int count = 0;
+    private boolean scheduled = false; // Tarefa no executor, que envia também os ACKs enfileirados depois
+
+    public ACKSender(ReliableChannel channel, Connection connection) {
       this.channel = channel;
-      this.seqNumber = seqNumber;
-      this.p = p;
+      this.connection = connection;
+    }
+
+    public void queue(int seqNumber) {
+      synchronized(this) {
+        if(count == seqNumbers.length) { // Fila cheia: descarta o ACK mais antigo, os seguintes (cumulativos ou repetidos) o substituem
+          head = (head + 1) % seqNumbers.length;
+          count--;
+        }
+        seqNumbers[(head + count) % seqNumbers.length] = seqNumber;
+        count++;
+        if(scheduled) return;
+        scheduled = true;
+      }
+      channel.executor.execute(this);
     }
 
     @Override
     public void run() {
-      try {
-        this.sendACK();
-      } catch (IOException e) {
-        System.out.println("Erro ao receber ACK");
-        e.printStackTrace();
+      while(true) {
+        int seqNumber;
+        synchronized(this) {
+          if(count == 0) {
+            scheduled = false;
+            return;
+          }
+          seqNumber = seqNumbers[head];
+          head = (head + 1) % seqNumbers.length;
+          count--;
+        }
+        this.sendACK(seqNumber);
       }
     }
   
-    private void sendACK() throws IOException {
+    private void sendACK(int seqNumber) {
       try {
-        channel.sendACK(p, seqNumber);
+        channel.sendACK(connection, seqNumber);
       } catch (Exception e) {
         System.out.println("Erro ao enviar ACK");
         e.printStackTrace();
@@ -145,34 +572,83 @@ public class ReliableChannel extends DatagramSocket { // Canal de comunicação
   }
 
   private final boolean REMOVE_COLORS = false;
+  private final int MAX_SACK_BLOCKS = 4; // Quantidade máxima de intervalos SACK por ACK (8 bytes cada)
+  private final int MAX_SEGMENT_SIZE = 1024; // Tamanho máximo do segmento (header + dados)
+  private final int HEADER_SIZE = 12; // Checksum + número de sequência + tipo do segmento
+  private final int DATA = 0; // Tipos de segmento (campo de 4 bytes após o número de sequência)
+  private final int ACK = 1;
+  private final int FIN = 2; // Fim do fluxo de saída, confirmado como um segmento de dados
+  private final int FILE = 3; // Início de um arquivo, os dados são o tamanho do arquivo (8 bytes)
+  private final int BATCH = 4; // Lote de mensagens pequenas, cada uma precedida do seu tamanho (2 bytes)
+  private final int FILE_SEGMENT_SIZE = MAX_SEGMENT_SIZE - HEADER_SIZE; // Dados por segmento de arquivo, todos cheios exceto o último
+  private final long FILE_REGION_SIZE = (long) FILE_SEGMENT_SIZE * 65536; // Tamanho de cada mapeamento do arquivo (múltiplo dos segmentos, nenhum segmento fica entre duas regiões)
 
   private Config config;
-  private Random random = new Random();
-  private Timer timer;
+  private Impairment impairment; // Sorteio das falhas injetadas
+  private TimerWheel timerWheel = TimerWheel.shared(); // Roda de timers compartilhada que controla todos os prazos de retransmissão
+  private TimerWheel.Timeout timer = new TimerWheel.Timeout(this::timeout); // Timer do go back n (monitora o pacote da base)
   private int sequenceNumber = 1;
-  private int timeout = -1;
+  private AtomicInteger timeout = new AtomicInteger(-1);
 
-  private List<DatagramPacket> sendingDataPackets = Collections.synchronizedList(new ArrayList<>()); // Buffer do remetente
+  private DatagramPacket[] sendBuffer; // Buffer circular do remetente, apenas os segmentos dentro da janela (número de sequência % windowSize)
+  private volatile int lastSeqNum = 0; // Último número de sequência colocado no buffer do remetente
   private int nextSeqNum = 1;
-  private int base = 1;
-
-  private int expectedSeqNum = 1;
-
-  private ConcurrentHashMap<String, Integer> sendCount = new ConcurrentHashMap<>();
-  private ConcurrentHashMap<String, Integer> eliminateCount = new ConcurrentHashMap<>();
-  private ConcurrentHashMap<String, Integer> delayCount = new ConcurrentHashMap<>();
-  private ConcurrentHashMap<String, Integer> duplicateCount = new ConcurrentHashMap<>();
-  private ConcurrentHashMap<String, Integer> corruptCount = new ConcurrentHashMap<>();
-  private ConcurrentHashMap<String, Integer> cutCount = new ConcurrentHashMap<>();
-
-  private ConcurrentHashMap<String, Integer> receivedCount = new ConcurrentHashMap<>();
-  private ConcurrentHashMap<String, Integer> receivedWithFailedIntegrityCount = new ConcurrentHashMap<>();
-  private ConcurrentHashMap<String, Integer> receiveDuplicateCount = new ConcurrentHashMap<>();
-
-  private ConcurrentHashMap<String, ArrayList<Integer>> seqNumberMap = new ConcurrentHashMap<>();
+  private volatile int base = 1;
+  private RttEstimator rttEstimator;
+  private CongestionWindow congestionWindow;
+  private int highestSentSeqNum = 0; // Maior número de sequência já transmitido (go back n)
+  private long[] sendTimes; // Instante (nanoTime) da primeira transmissão de cada pacote da janela
+  private boolean[] retransmitted; // Pacotes retransmitidos não geram amostras de RTT
+  private volatile Thread senderThread; // Thread bloqueada aguardando espaço na janela, timeout ou fim da transferência
+  private ACKListener ackListener;
+  private volatile boolean closing = false; // Fechamento iniciado: o ACKListener encerra e os datagramas recebidos são descartados
+
+  private boolean[] ackedPackets; // Pacotes da janela confirmados individualmente por selective repeat ou SACK
+  private TimerWheel.Timeout[] packetTimers; // Selective Repeat: um timer por posição da janela
+  private ConcurrentLinkedQueue<Integer> timedOutPackets = new ConcurrentLinkedQueue<>(); // Selective Repeat: pacotes cujo timer expirou
+
+  private PeerMap<Connection> connections = new PeerMap<>(); // Estado de recepção por remetente, buscado pelo endereço e porta sem alocar a chave
+  private volatile Connection lastConnection; // Última conexão utilizada, evita a busca no mapa para pacotes seguidos do mesmo remetente
+  private ReliableInputStream inputStream; // Fluxo de entrada aberto (recebe os dados entregues em ordem)
+  private volatile FileReceiver fileReceiver; // Arquivo em recepção (recebe os dados no lugar do fluxo de entrada)
+  private volatile MessageListener messageListener; // Recebe cada mensagem entregue em ordem
+
+  private byte[] batch; // Lote em montagem (null com o agrupamento desabilitado)
+  private int batchLength = 0;
+  private int batchCount = 0; // Mensagens no lote
+  private InetAddress batchAddress; // Destino do lote, mensagens para outro destino encerram o lote
+  private int batchPort;
+  private long batchStart; // Instante (nanoTime) da primeira mensagem do lote
+  private TimerWheel.Timeout batchTimer; // Envia o lote após batchDelayMS mesmo sem novas mensagens
+  private final Object sendLock = new Object(); // Lote e lado produtor da janela de envio: a aplicação e o envio do lote expirado (executor) nunca avançam a janela ao mesmo tempo
+  private DatagramChannel datagramChannel; // Transporte NIO (null quando o próprio socket é utilizado)
+  private ExecutorService executor; // Executa o envio dos ACKs
+  private PacketLog packetLog; // Log assíncrono dos pacotes enviados e recebidos
+  private DelayLine delayLine; // Envia os pacotes atrasados sem bloquear quem os enviou
+  private BufferPool bufferPool; // Buffers dos pacotes fora de ordem armazenados e dos pacotes atrasados
+  private ThreadLocal<Checksum> checksum = ThreadLocal.withInitial(this::createChecksum); // Implementações de Checksum não são thread safe
+  private ThreadLocal<DatagramPacket> receivePacket = ThreadLocal.withInitial(() -> new DatagramPacket(new byte[MAX_SEGMENT_SIZE], MAX_SEGMENT_SIZE)); // Buffer de recepção reutilizado por thread
+  private ThreadLocal<DatagramPacket> ackPacket = ThreadLocal.withInitial(() -> new DatagramPacket(new byte[HEADER_SIZE + MAX_SACK_BLOCKS * 8], 0)); // Buffer de envio de ACKs reutilizado por thread
+
+  private enum Sent { SENT, ELIMINATED, DELAYED, DUPLICATED, CORRUPTED, CUT, RETRANSMITTED } // Contadores de envio por destinatário
+  private enum Received { RECEIVED, FAILED_INTEGRITY, DUPLICATED, DELIVERED } // Contadores de recebimento por remetente
+
+  private ChannelMetrics<Sent> sentMetrics = new ChannelMetrics<>(Sent.class);
+  private ChannelMetrics<Received> receivedMetrics = new ChannelMetrics<>(Received.class);
 
   public ReliableChannel(int port) throws SocketException {
     super(port);
+    this.init();
+    this.setSoTimeout(this.config.getTimeout() + 10000);
+  }
+
+  public ReliableChannel(int port, SelectorTransport transport) throws IOException { // Canal sobre um DatagramChannel não bloqueante, os datagramas são entregues pelo laço de eventos do transporte
+    super((SocketAddress) null);
+    this.init();
+    this.datagramChannel = transport.bind(port, this, MAX_SEGMENT_SIZE);
+  }
+
+  private void init() {
     Gson gson = new Gson();
 
     try {
@@ -183,151 +659,734 @@ public class ReliableChannel extends DatagramSocket { // Canal de comunicação
       System.exit(1);
     }
 
-    this.setSoTimeout(this.config.getTimeout() + 10000);
+    this.rttEstimator = new RttEstimator();
+    this.congestionWindow = new CongestionWindow();
+    int windowSize = this.config.getWindowSize();
+    this.sendBuffer = new DatagramPacket[windowSize];
+    this.ackedPackets = new boolean[windowSize];
+    this.sendTimes = new long[windowSize];
+    this.retransmitted = new boolean[windowSize];
+    this.packetTimers = new TimerWheel.Timeout[windowSize];
+    for(int i = 0 ; i < windowSize ; i++) {
+      this.packetTimers[i] = new TimerWheel.Timeout(this::packetTimeout);
+    }
+    if(config.getBatchBytes() > 2) this.batch = new byte[config.getBatchBytes()];
+    this.batchTimer = new TimerWheel.Timeout(id -> executor.execute(this::flushExpiredBatch));
+    this.executor = createExecutor();
+    this.impairment = new Impairment(config.getSeed(), config.getLossModel(), config.getBurstStartProbability(), config.getBurstEndProbability(), config.getBurstLossProbability(), config.getLossTrace());
+    this.bufferPool = new BufferPool(MAX_SEGMENT_SIZE, config.getBufferPoolSize(), config.isBufferLeakDetection());
+    this.delayLine = new DelayLine(this::transmit, bufferPool);
+    this.packetLog = new PacketLog(PacketLog.parseLevel(config.getLogLevel()), config.getLogFile(), config.getLogBufferSize(), !REMOVE_COLORS, this::getMessage);
+  }
+
+  private ExecutorService createExecutor() { // Executor das tarefas curtas do canal: um pool limitado de threads (padrão, o projeto compila para Java 17) ou virtual threads, se pedidas
+    if(config.getExecutor().equalsIgnoreCase("virtual")) {
+      try {
+        return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null); // Disponível a partir do Java 21
+      } catch (ReflectiveOperationException | UnsupportedOperationException e) { // Não troca silenciosamente pelo pool: os resultados seriam atribuídos às virtual threads
+        System.out.printf("executor \"virtual\" exige virtual threads (Java 21+), indisponíveis nesta JVM (Java %s)%n", Runtime.version().feature());
+        System.exit(1);
+      }
+    }
+    if(!config.getExecutor().equalsIgnoreCase("pool")) {
+      System.out.printf("executor inválido: %s (deve ser \"pool\" ou \"virtual\")%n", config.getExecutor());
+      System.exit(1);
+    }
+    AtomicInteger threadCount = new AtomicInteger();
+    return Executors.newFixedThreadPool(config.getExecutorThreads(), (Runnable task) -> {
+      Thread thread = new Thread(task, "Channel-" + threadCount.incrementAndGet());
+      thread.setDaemon(true); // Não impede o término do programa
+      return thread;
+    });
+  }
+
+  @Override
+  public void close() { // Encerra primeiro quem ainda pode receber pacotes, os buffers só são devolvidos quando nenhuma thread os utiliza
+    closing = true;
+    stopAckListener();
+    delayLine.close();
+    super.close();
+    if(datagramChannel != null) {
+      try {
+        datagramChannel.close();
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+    executor.shutdown();
+    try {
+      executor.awaitTermination(1, TimeUnit.SECONDS); // ACKs em envio
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    packetLog.close();
+    connections.forEach((Connection connection) -> { // Pacotes fora de ordem que não chegaram a ser entregues
+      timerWheel.cancel(connection.idleTimer);
+      releaseBuffered(connection);
+    });
+    int leaks = bufferPool.reportLeaks();
+    if(leaks > 0) System.out.printf("%d buffers não devolvidos ao pool%n", leaks);
+  }
+
+  private void stopAckListener() { // Acorda o ACKListener bloqueado no receive com um datagrama vazio para si mesmo e aguarda o seu término
+    if(ackListener == null || datagramChannel != null) return;
+    DatagramPacket wakeUp = new DatagramPacket(new byte[0], 0, InetAddress.getLoopbackAddress(), getLocalPort());
+    try {
+      while(ackListener.isAlive()) {
+        super.send(wakeUp);
+        ackListener.join(100);
+      }
+    } catch (IOException e) {
+      e.printStackTrace();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
   }
 
   private synchronized int getSequenceNumber() { // Retorna o sequence number da próxima mensagem a ser enviada
     return sequenceNumber++;
   }
 
-  public void send(List<DatagramPacket> ps) throws IOException {
-    for(int i = 1 ; i <= ps.size() ; i++) {
-      DatagramPacket p = ps.get(i - 1);
-      this.buildSegment(p, false, i);
-      sendingDataPackets.add(p);
+  public void send(List<DatagramPacket> ps) throws IOException { // Envia os pacotes e aguarda a confirmação de todos
+    for(DatagramPacket p : ps) {
+      queue(p);
     }
+    flush();
+    waitForAcks();
+  }
 
-    ACKListener ackListener = new ACKListener(this);
-    ackListener.start();
+  public void queue(DatagramPacket p) throws IOException { // Envia a mensagem sem aguardar os ACKs, agrupando mensagens pequenas em lotes quando batchBytes > 0
+    synchronized(sendLock) {
+      int length = p.getLength();
+      if(batch == null || length + 2 > batch.length) { // Agrupamento desabilitado ou mensagem maior que o lote: segmento próprio, após o lote pendente
+        flush();
+        enqueueSegment(p.getData(), p.getOffset(), length, p.getAddress(), p.getPort(), DATA);
+        return;
+      }
+      if(batchCount > 0 && (batchLength + 2 + length > batch.length || batchPort != p.getPort() || !batchAddress.equals(p.getAddress()) || isBatchExpired())) {
+        flush();
+      }
+      if(batchCount == 0) {
+        batchAddress = p.getAddress();
+        batchPort = p.getPort();
+        batchStart = System.nanoTime();
+        if(config.getBatchDelayMS() > 0) timerWheel.schedule(batchTimer, 0, config.getBatchDelayMS());
+      }
+      batch[batchLength] = (byte) (length >>> 8);
+      batch[batchLength + 1] = (byte) length;
+      System.arraycopy(p.getData(), p.getOffset(), batch, batchLength + 2, length);
+      batchLength += 2 + length;
+      batchCount++;
+      if(batchLength + 2 >= batch.length) flush(); // Nenhuma outra mensagem cabe no lote
+    }
+  }
 
-    startTimer(1);
-    sendWindow(false); // Envia primeira janela de pacotes
-    while(base <= sendingDataPackets.size()) { // Enquanto não confirmou todos os pacotes
-      if(this.timeout != -1) {
-        System.out.println(redText("Timeout") + " - Pacote [" + timeout + "]");
-        startTimer(base);
-        sendWindow(true);
-        this.timeout = -1;
+  public void flush() throws IOException { // Envia o lote em montagem, sem aguardar os ACKs
+    synchronized(sendLock) {
+      if(batchCount == 0) return;
+      timerWheel.cancel(batchTimer);
+      if(batchCount == 1) { // Mensagem sozinha segue como um segmento de dados comum
+        enqueueSegment(batch, 2, batchLength - 2, batchAddress, batchPort, DATA);
       } else {
-        sendRange(); // Envia pacotes dentro do avanço da janela
+        enqueueSegment(batch, 0, batchLength, batchAddress, batchPort, BATCH);
+      }
+      batchLength = 0;
+      batchCount = 0;
+    }
+  }
+
+  private void flushExpiredBatch() { // Executado no executor quando batchTimer expira (a roda de timers não pode bloquear aguardando a janela)
+    try {
+      synchronized(sendLock) {
+        if(batchCount > 0 && isBatchExpired()) flush(); // O lote pode já ter sido enviado e outro iniciado
+      }
+    } catch (IOException e) {
+      System.out.println("Erro ao enviar o lote");
+      e.printStackTrace();
+    }
+  }
+
+  private boolean isBatchExpired() { // A primeira mensagem do lote já aguardou batchDelayMS
+    return config.getBatchDelayMS() > 0 && System.nanoTime() - batchStart >= config.getBatchDelayMS() * 1_000_000L;
+  }
+
+  public void setMessageListener(MessageListener messageListener) { // Recebe cada mensagem entregue em ordem (as mensagens dos lotes separadamente)
+    this.messageListener = messageListener;
+  }
+
+  public OutputStream openOutputStream(InetAddress address, int port) { // Abre um fluxo de saída para o destino (close() envia o FIN e aguarda os ACKs)
+    return new ReliableOutputStream(address, port);
+  }
+
+  public InputStream openInputStream() { // Abre um fluxo de entrada com os dados entregues em ordem (termina ao receber o FIN)
+    this.inputStream = new ReliableInputStream();
+    return this.inputStream;
+  }
+
+  public void sendFile(Path path, InetAddress address, int port) throws IOException { // Envia o arquivo (segmento FILE com o tamanho, dados lidos do arquivo mapeado e FIN) e aguarda a confirmação de todos os segmentos
+    try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+      long size = file.size();
+      byte[] header = new byte[8];
+      writeInt(header, 0, (int) (size >>> 32));
+      writeInt(header, 4, (int) size);
+      synchronized(sendLock) {
+        flush(); // O lote pendente de queue() sai antes do arquivo
+        enqueueSegment(header, 0, header.length, address, port, FILE);
       }
+      for(long start = 0 ; start < size ; start += FILE_REGION_SIZE) { // Mapeia uma região por vez, arquivos maiores que 2 GiB não cabem em um único mapeamento
+        MappedByteBuffer region = file.map(FileChannel.MapMode.READ_ONLY, start, Math.min(FILE_REGION_SIZE, size - start));
+        for(int position = 0 ; position < region.limit() ; position += FILE_SEGMENT_SIZE) {
+          enqueueSegment(region, position, Math.min(FILE_SEGMENT_SIZE, region.limit() - position), address, port, DATA);
+        }
+      }
+      enqueueSegment(header, 0, 0, address, port, FIN);
+      waitForAcks();
+    }
+  }
+
+  public long receiveFile(Path path) throws IOException { // Recebe o arquivo enviado por sendFile em path, retorna o tamanho
+    if(datagramChannel != null) throw new IllegalStateException("Canal registrado em um SelectorTransport, os datagramas são entregues pelo laço de eventos");
+    FileReceiver receiver = new FileReceiver(path);
+    this.fileReceiver = receiver;
+    try {
+      while(!receiver.finished) {
+        receive(MAX_SEGMENT_SIZE);
+      }
+      awaitSilence();
+    } finally {
+      this.fileReceiver = null;
+      receiver.close();
     }
+    return receiver.size;
+  }
 
+  private void awaitSilence() throws IOException { // Continua confirmando retransmissões até o remetente silenciar, pois o ACK do FIN pode ter se perdido
+    int soTimeout = getSoTimeout();
+    setSoTimeout(config.getMaxTimeout());
     try {
-      ackListener.interrupt(); // Para de ouvir os ACKs
-    } catch (Exception e) {
+      while(true) {
+        receive(MAX_SEGMENT_SIZE);
+      }
+    } catch (SocketTimeoutException e) {
+      // Nenhuma retransmissão durante o maior RTO possível, o remetente recebeu todos os ACKs
+    } finally {
+      setSoTimeout(soTimeout);
+    }
+  }
+
+  private void enqueueSegment(byte[] payload, int offset, int length, InetAddress address, int port, int segmentType) throws IOException { // Copia o segmento para o buffer do remetente, aguardando espaço na janela
+    synchronized(sendLock) {
+      byte[] data = reserveSegment(length);
+      System.arraycopy(payload, offset, data, HEADER_SIZE, length);
+      commitSegment(length, address, port, segmentType);
+    }
+  }
 
+  private void enqueueSegment(ByteBuffer payload, int offset, int length, InetAddress address, int port, int segmentType) throws IOException { // Lê os dados direto do buffer (arquivo mapeado) para o buffer do remetente
+    synchronized(sendLock) {
+      byte[] data = reserveSegment(length);
+      payload.get(offset, data, HEADER_SIZE, length);
+      commitSegment(length, address, port, segmentType);
     }
   }
 
-  private void sendWindow(boolean isRetransmission) throws IOException { // Envia janela inicial de pacotes (ou retransmissão)
+  private byte[] reserveSegment(int length) throws IOException { // Aguarda espaço na janela, retorna o buffer da próxima posição
+    while(lastSeqNum + 1 >= base + config.getWindowSize()) {
+      pump(true);
+    }
+    int slot = slot(lastSeqNum + 1);
+    DatagramPacket segment = sendBuffer[slot];
+    if(segment == null || segment.getData().length < HEADER_SIZE + length) { // Cada posição da janela aloca seu buffer uma única vez
+      segment = new DatagramPacket(new byte[Math.max(MAX_SEGMENT_SIZE, HEADER_SIZE + length)], 0);
+      sendBuffer[slot] = segment;
+    }
+    return segment.getData();
+  }
+
+  private void commitSegment(int length, InetAddress address, int port, int segmentType) throws IOException { // Escreve o header do segmento reservado e o envia se a janela permitir
+    int seqNum = lastSeqNum + 1;
+    int slot = slot(seqNum);
+    DatagramPacket segment = sendBuffer[slot];
+    byte[] data = segment.getData();
+    writeHeader(data, seqNum, segmentType, length);
+    segment.setData(data, 0, HEADER_SIZE + length);
+    segment.setAddress(address);
+    segment.setPort(port);
+    synchronized(this) { // Mesmo lock de acknowledgePacket e markSacked: um SACK atrasado não pode marcar a posição reutilizada
+      ackedPackets[slot] = false;
+      retransmitted[slot] = false;
+      sendTimes[slot] = 0;
+      lastSeqNum = seqNum;
+    }
+    pump(false);
+  }
+
+  private void waitForAcks() throws IOException { // Aguarda a confirmação de todos os segmentos do buffer do remetente
+    synchronized(sendLock) {
+      while(base <= lastSeqNum) {
+        pump(true);
+      }
+    }
+  }
+
+  private void pump(boolean block) throws IOException { // Trata timeouts e envia o que a janela permite, bloqueando (se pedido) quando não há nada a fazer
+    senderThread = Thread.currentThread();
+    if(ackListener == null && datagramChannel == null) { // Com o SelectorTransport os ACKs chegam por onDatagram, não há socket para o listener ler
+      ackListener = new ACKListener(this);
+      ackListener.start();
+    }
+
+    boolean worked = isSelectiveRepeat() ? retransmitSelective() : retransmitWindow();
+    if(nextSeqNum < base + getWindowSize() && nextSeqNum <= lastSeqNum) { // Envia pacotes dentro do avanço da janela
+      if(isSelectiveRepeat()) {
+        sendSelectiveRange();
+      } else {
+        sendRange();
+      }
+      worked = true;
+    }
+    if(!worked && block) {
+      LockSupport.park(this); // Aguarda ACK, timeout ou fim da transferência
+    }
+  }
+
+  private boolean retransmitWindow() throws IOException { // Go back n: volta para a base e reenvia a janela após um timeout
+    int timedOut = this.timeout.getAndSet(-1); // Consome o timeout antes de reenviar, um novo timeout durante o reenvio não é perdido
+    if(timedOut == -1) return false;
+    packetLog.event(PacketLog.Level.WARN, PacketLog.Color.RED, "Timeout - Pacote [%d]", timedOut);
+    rttEstimator.backoff();
+    congestionWindow.onLoss(timedOut, nextSeqNum);
+    startTimer(base);
+    nextSeqNum = base;
+    sendRange();
+    return true;
+  }
+
+  private boolean retransmitSelective() throws IOException { // Selective repeat: reenvia apenas os pacotes cujo timer expirou
+    boolean worked = false;
+    Integer timedOut;
+    while((timedOut = timedOutPackets.poll()) != null) {
+      if(timedOut < base || timedOut > lastSeqNum || ackedPackets[slot(timedOut)]) continue;
+      packetLog.event(PacketLog.Level.WARN, PacketLog.Color.RED, "Timeout - Pacote [%d]", timedOut);
+      rttEstimator.backoff();
+      congestionWindow.onLoss(timedOut, nextSeqNum);
+      recordTransmission(timedOut, true);
+      sendPacket(timedOut);
+      startPacketTimer(timedOut);
+      worked = true;
+    }
+    return worked;
+  }
+
+  private void sendSelectiveRange() throws IOException { // Envia os pacotes ainda não enviados dentro da janela [base, base + windowSize)
     int currentBase = base;
-    for(int i = currentBase - 1 ; i < currentBase - 1 + config.getWindowSize() && i < sendingDataPackets.size() ; i++) {
-      DatagramPacket p = sendingDataPackets.get(i);
-      send(new DatagramPacket(p.getData().clone(), p.getLength(), p.getAddress(), p.getPort()), i, false);
-      if(!isRetransmission) nextSeqNum++;
+    for(int i = nextSeqNum ; i < currentBase + getWindowSize() && i <= lastSeqNum ; i++) {
+      recordTransmission(i, false);
+      sendPacket(i);
+      startPacketTimer(i);
+      nextSeqNum++;
+    }
+  }
+
+  private void sendPacket(int seqNum) throws IOException { // Envia (ou reenvia) um único pacote do buffer do remetente
+    sendSegment(sendBuffer[slot(seqNum)]); // Retransmissões reutilizam os bytes armazenados
+  }
+
+  private void startPacketTimer(int seqNum) { // Inicia o timer individual de um pacote (selective repeat)
+    timerWheel.schedule(packetTimers[slot(seqNum)], seqNum, rttEstimator.getRto());
+  }
+
+  private void stopPacketTimer(int seqNum) { // Para o timer individual de um pacote (selective repeat)
+    TimerWheel.Timeout packetTimer = packetTimers[slot(seqNum)];
+    if(packetTimer.getId() == seqNum) timerWheel.cancel(packetTimer);
+  }
+
+  private void packetTimeout(int seqNum) { // Sinaliza que o timer individual de um pacote expirou
+    timedOutPackets.add(seqNum);
+    wakeSender();
+  }
+
+  private void wakeSender() { // Acorda o sender bloqueado (não bloqueia, pode ser chamado pela roda de timers)
+    Thread thread = senderThread;
+    if(thread != null) LockSupport.unpark(thread);
+  }
+
+  private synchronized void acknowledgePacket(int seqNum, boolean fromSack) { // Marca o pacote como confirmado e avança a base até o primeiro pacote não confirmado
+    if(seqNum < base || seqNum > lastSeqNum || ackedPackets[slot(seqNum)]) return;
+    ackedPackets[slot(seqNum)] = true;
+    if(!fromSack) sampleRtt(seqNum, seqNum); // Intervalos SACK chegam depois do pacote e não servem como medição
+    rttEstimator.resetBackoff();
+    congestionWindow.onAck(1);
+    stopPacketTimer(seqNum);
+    while(base <= lastSeqNum && ackedPackets[slot(base)]) {
+      base++;
     }
+    wakeSender();
+  }
+
+  private void recordTransmission(int seqNum, boolean isRetransmission) { // Registra o envio do pacote para a medição do RTT
+    if(isRetransmission) {
+      retransmitted[slot(seqNum)] = true;
+      sentMetrics.increment(sendBuffer[slot(seqNum)], Sent.RETRANSMITTED);
+    } else {
+      sendTimes[slot(seqNum)] = System.nanoTime();
+    }
+  }
+
+  private void sampleRtt(int fromSeqNum, int seqNum) { // Mede o RTT do ACK que confirma [fromSeqNum, seqNum], ignorando ACKs que dependeram de retransmissões
+    if(seqNum > lastSeqNum || seqNum - fromSeqNum >= config.getWindowSize() || sendTimes[slot(seqNum)] == 0) return;
+    for(int i = Math.max(fromSeqNum, 1) ; i <= seqNum ; i++) {
+      if(retransmitted[slot(i)]) return; // O ACK cumulativo pode ter esperado a retransmissão de um pacote anterior
+    }
+    rttEstimator.addSample((System.nanoTime() - sendTimes[slot(seqNum)]) / 1_000_000.0);
+  }
+
+  private int slot(int seqNum) { // Posição do número de sequência nos buffers circulares da janela
+    return seqNum % config.getWindowSize();
+  }
+
+  private boolean isSelectiveRepeat() {
+    return config.getProtocol().equalsIgnoreCase("SR");
   }
 
   private void sendRange() throws IOException { // Envia pacotes dentro do avanço da janela
     int currentBase = base;
-    for(int i = nextSeqNum ; i < currentBase + 1 + config.getWindowSize() && i < sendingDataPackets.size() + 1 ; i++) {
-      DatagramPacket p = sendingDataPackets.get(i - 1);
-      send(new DatagramPacket(p.getData().clone(), p.getLength(), p.getAddress(), p.getPort()), i - 1, false);
-      nextSeqNum++;
+    for(int i = nextSeqNum ; i < currentBase + getWindowSize() && i <= lastSeqNum ; i++, nextSeqNum++) {
+      if(ackedPackets[slot(i)]) continue; // Receiver já possui o pacote (SACK), não reenvia
+      if(!this.timer.isScheduled()) startTimer(base);
+      recordTransmission(i, i <= highestSentSeqNum);
+      sendPacket(i);
+      highestSentSeqNum = Math.max(highestSentSeqNum, i);
     }
   }
 
+  private int getWindowSize() { // Janela de envio efetiva: janela de congestionamento limitada pelo windowSize configurado
+    return config.isCongestionControl() ? congestionWindow.getWindow() : config.getWindowSize();
+  }
+
   private void startTimer(int seqNum) { // Inicia timer
-    if(this.timer != null && this.timer.getPacketNumber() == seqNum) return; // Não reinicia o timer se pacote já está sendo monitorado
-    System.out.println(yellowText("Iniciando timer para pacote " + (seqNum)));
-    this.timer = new Timer(seqNum, config, this);
-    timer.start();
+    if(this.timer.isScheduled() && this.timer.getId() == seqNum) return; // Não reinicia o timer se pacote já está sendo monitorado
+    packetLog.event(PacketLog.Level.DEBUG, PacketLog.Color.YELLOW, "Iniciando timer para pacote %d", seqNum);
+    timerWheel.schedule(timer, seqNum, rttEstimator.getRto());
   }
 
   private void stopTimer() { // Para o timer
-    if(timer == null) return;
-    timer.interrupt();
-    this.timer = null;
+    if(timerWheel.cancel(timer)) {
+      packetLog.event(PacketLog.Level.DEBUG, PacketLog.Color.GREEN, "Timer para ACK %d parado", timer.getId());
+    }
   }
 
   private void timeout(int packetNumber) { // Seta flag de timeout
-    this.timeout = packetNumber;
+    this.timeout.set(packetNumber);
+    wakeSender();
   }
 
   public void send(DatagramPacket p, int segmentSequenceNumber, boolean isAck) throws IOException { // Recebe pedidos de envio de segmentos UDP
-    this.incrementCount(sendCount, getClientKey(p));
-    if(isAck) this.buildSegment(p, isAck, segmentSequenceNumber);
+    if(isAck) this.buildSegment(p, ACK, segmentSequenceNumber);
+    this.sendSegment(p);
+  }
+
+  private void sendSegment(DatagramPacket p) throws IOException { // Envia um segmento já montado
+    sentMetrics.increment(p, Sent.SENT);
     this.applyErrorsAndSend(p);
   }
 
-  public String receive(int length) throws IOException { // Recebe a mensagem
-    DatagramPacket p = new DatagramPacket(new byte[length], length);
+  public int receive(int length) throws IOException { // Recebe o segmento, retorna a quantidade de bytes de dados
+    if(datagramChannel != null) throw new IllegalStateException("Canal registrado em um SelectorTransport, os datagramas são entregues pelo laço de eventos");
+    DatagramPacket p = receivePacket.get();
+    if(p.getData().length < length) p.setData(new byte[length]);
+    p.setData(p.getData(), 0, length);
     super.receive(p);
-    incrementCount(receivedCount, getClientKey(p));
+    return process(p);
+  }
+
+  @Override
+  public void onDatagram(DatagramPacket p) throws IOException { // Datagrama entregue pelo SelectorTransport (inclusive os ACKs, no lugar do ACKListener)
+    process(p);
+    if(timer.isScheduled() || base <= lastSeqNum) updateTimer(); // Apenas com envio em andamento: o canal que só recebe não toca na roda de timers
+  }
+
+  private int process(DatagramPacket p) throws IOException { // Trata o segmento recebido, retorna a quantidade de bytes de dados
+    if(closing) return 0; // Canal em fechamento: descarta o datagrama (inclusive o que acorda o ACKListener)
+    receivedMetrics.increment(p, Received.RECEIVED);
     byte[] data = p.getData();
-    byte[] checksum = Arrays.copyOfRange(data, 0, 4);
-    byte[] seqNumber = Arrays.copyOfRange(data, 4, 8);
-    byte[] isAckArray = Arrays.copyOfRange(data, 8, 12);
-    int seqNumberInt = ByteBuffer.wrap(seqNumber).getInt();
-    boolean isAck = ByteBuffer.wrap(isAckArray).getInt() == 1;
-    byte[] message = Arrays.copyOfRange(data, 12, p.getLength());
-    String messageString = new String(message, StandardCharsets.UTF_8);
-
-    int sum = calculateChecksum(message, seqNumber, isAckArray);
-    if(sum != ByteBuffer.wrap(checksum).getInt()) { // Verifica se o checksum está correto
-      logMessage(p, redText("Corrompida/cortada"), true);
-      incrementCount(receivedWithFailedIntegrityCount, getClientKey(p));
-      return messageString;
-    }
-
-    if(seqNumberMap.getOrDefault(getClientKey(p), null) == null) { // Instancia o mapa de sequence numbers para o cliente caso não exista
-      seqNumberMap.put(getClientKey(p), new ArrayList<Integer>());
-    }
-
-    ArrayList<Integer> seqNumList = seqNumberMap.get(getClientKey(p));
-    if(seqNumList.contains(seqNumberInt)) { // Verifica se a mensagem é duplicada
-      logMessage(p, redText("Duplicada"), true);
-      incrementCount(receiveDuplicateCount, getClientKey(p));
-      if(!isAck) new ACKSender(this, expectedSeqNum - 1, p).start(); // Envia o ACK do próximo número de sequência esperado
+
+    if(p.getLength() < HEADER_SIZE || checksum(data, p.getLength()) != readInt(data, 0)) { // Verifica se o checksum está correto
+      packetLog.packet(PacketLog.Level.WARN, PacketLog.Color.RED, "Corrompida/cortada", p, true);
+      receivedMetrics.increment(p, Received.FAILED_INTEGRITY);
+      return 0;
+    }
+    int seqNumberInt = readInt(data, 4);
+    boolean isAck = readInt(data, 8) == ACK;
+
+    Connection connection = getConnection(p);
+    SequenceWindow receivedSeqNums = connection.receivedSeqNums;
+    if(receivedSeqNums.contains(seqNumberInt)) { // Verifica se a mensagem é duplicada
+      packetLog.packet(PacketLog.Level.WARN, PacketLog.Color.RED, "Duplicada", p, true);
+      receivedMetrics.increment(p, Received.DUPLICATED);
+      if(!isAck) sendImmediateAck(connection, isSelectiveRepeat() ? seqNumberInt : connection.expectedSeqNum - 1); // Reenvia o ACK (do próprio pacote no selective repeat, do último em ordem no go back n)
+      if(isAck) readSackBlocks(p); // ACKs duplicados ainda podem trazer novos intervalos SACK
+    } else if(isSelectiveRepeat()) {
+      receiveSelectiveRepeat(connection, p, seqNumberInt, isAck);
     } else {
       if(!isAck) {
-        if(expectedSeqNum == seqNumberInt) { // Verifica se o número de sequência é o esperado
-          seqNumList.add(seqNumberInt);
-          expectedSeqNum++;
-          new ACKSender(this, seqNumberInt, p).start(); // Envia o ACK do pacote recebido
-          logMessage(p, greenText("Entregue"), true);
-        } else { // Se não for, adiciona o número de sequência ao mapa e não envia o ACK
-          new ACKSender(this, expectedSeqNum - 1, p).start(); // Envia o ACK do próximo número de sequência esperado
-          String expectedSeqNums = "";
-          for(int i = expectedSeqNum ; i < seqNumberInt ; i++) { // Envia ACKs para os pacotes faltantes
-            expectedSeqNums += i + " ";
+        if(connection.expectedSeqNum == seqNumberInt) { // Verifica se o número de sequência é o esperado
+          receivedSeqNums.add(seqNumberInt);
+          deliver(connection, p);
+          boolean filledGap = deliverBuffered(connection);
+          if(filledGap) {
+            sendImmediateAck(connection, connection.expectedSeqNum - 1); // Lacuna preenchida, confirma imediatamente todos os pacotes entregues
+          } else {
+            sendDelayedAck(connection, seqNumberInt); // Envia (ou acumula) o ACK do pacote recebido
           }
-          logMessage(p, redText("Fora de ordem") + " - aguardando " + expectedSeqNums, true);
+        } else if(config.isSack() && seqNumberInt > connection.expectedSeqNum && seqNumberInt < connection.expectedSeqNum + config.getWindowSize()) { // Com SACK, armazena o pacote fora de ordem
+          receivedSeqNums.add(seqNumberInt);
+          bufferPacket(connection, p, seqNumberInt);
+          sendImmediateAck(connection, connection.expectedSeqNum - 1); // ACK cumulativo imediato, com o pacote armazenado nos intervalos SACK
+          packetLog.packet(PacketLog.Level.INFO, PacketLog.Color.YELLOW, "Armazenado (fora de ordem)", p, true);
+        } else { // Se não for, adiciona o número de sequência ao mapa e não envia o ACK
+          sendImmediateAck(connection, connection.expectedSeqNum - 1); // Envia imediatamente o ACK do último pacote em ordem ao detectar a lacuna
+          packetLog.packet(PacketLog.Level.WARN, PacketLog.Color.RED, "Fora de ordem - aguardando a partir de %d", connection.expectedSeqNum, p, true);
         }
       } else {
-        seqNumList.add(seqNumberInt);
+        receivedSeqNums.add(seqNumberInt);
         boolean alreadyConfirmed = !(seqNumberInt >= this.base);
-        logMessage(p, alreadyConfirmed ? "Já confirmado" : "Confirmado", true);
-        this.base = !alreadyConfirmed ? seqNumberInt + 1 : this.base; // Se o ack for de um pacote ainda não confirmado, avança base para o próximo pacote
+        packetLog.packet(PacketLog.Level.INFO, PacketLog.Color.NONE, alreadyConfirmed ? "Já confirmado" : "Confirmado", p, true);
+        readSackBlocks(p);
+        if(!alreadyConfirmed) { // Se o ack for de um pacote ainda não confirmado, avança base para o próximo pacote
+          sampleRtt(this.base, seqNumberInt);
+          rttEstimator.resetBackoff();
+          congestionWindow.onAck(seqNumberInt + 1 - this.base);
+          this.base = seqNumberInt + 1;
+          wakeSender();
+        }
+      }
+    }
+
+    return p.getLength() - HEADER_SIZE;
+  }
+
+  private void receiveSelectiveRepeat(Connection connection, DatagramPacket p, int seqNumberInt, boolean isAck) throws IOException { // Trata segmentos recebidos no modo selective repeat
+    if(isAck) {
+      connection.receivedSeqNums.add(seqNumberInt);
+      boolean alreadyConfirmed = !(seqNumberInt >= this.base);
+      packetLog.packet(PacketLog.Level.INFO, PacketLog.Color.NONE, alreadyConfirmed ? "Já confirmado" : "Confirmado", p, true);
+      acknowledgePacket(seqNumberInt, false);
+      readSackBlocks(p);
+      return;
+    }
+
+    if(seqNumberInt >= connection.expectedSeqNum + config.getWindowSize()) { // Fora da janela de recepção, descarta sem confirmar
+      packetLog.packet(PacketLog.Level.WARN, PacketLog.Color.RED, "Fora da janela", p, true);
+      return;
+    }
+
+    connection.receivedSeqNums.add(seqNumberInt);
+    connection.ackSender.queue(seqNumberInt); // Confirma individualmente o pacote recebido
+    if(seqNumberInt != connection.expectedSeqNum) { // Armazena o pacote fora de ordem até que os anteriores cheguem
+      bufferPacket(connection, p, seqNumberInt);
+      packetLog.packet(PacketLog.Level.INFO, PacketLog.Color.YELLOW, "Armazenado (fora de ordem)", p, true);
+      return;
+    }
+
+    deliver(connection, p);
+    deliverBuffered(connection);
+  }
+
+  private void deliver(Connection connection, DatagramPacket p) throws IOException { // Entrega o próximo segmento em ordem à aplicação
+    packetLog.packet(PacketLog.Level.INFO, PacketLog.Color.GREEN, "Entregue", p, true);
+    connection.expectedSeqNum++;
+    FileReceiver fileReceiver = this.fileReceiver;
+    if(fileReceiver != null && fileReceiver.accepts(connection)) {
+      fileReceiver.deliver(p);
+      return;
+    }
+    byte[] data = p.getData();
+    int segmentType = readInt(data, 8);
+    if(segmentType == FIN) {
+      if(inputStream != null && inputStream.accepts(connection)) inputStream.finish();
+    } else if(segmentType == BATCH) { // Entrega as mensagens do lote uma a uma, mantendo os limites entre elas
+      int offset = HEADER_SIZE;
+      while(offset + 2 <= p.getLength()) {
+        int length = ((data[offset] & 0xFF) << 8) | (data[offset + 1] & 0xFF);
+        if(offset + 2 + length > p.getLength()) break;
+        deliverMessage(connection, p, offset + 2, length);
+        offset += 2 + length;
       }
+    } else if(segmentType == DATA) {
+      deliverMessage(connection, p, HEADER_SIZE, p.getLength() - HEADER_SIZE);
     }
+  }
 
-    return messageString;
+  private void deliverMessage(Connection connection, DatagramPacket p, int offset, int length) { // Entrega uma mensagem ao listener e ao fluxo de entrada
+    receivedMetrics.increment(p, Received.DELIVERED);
+    MessageListener listener = this.messageListener;
+    if(listener != null) listener.message(p.getAddress(), p.getPort(), p.getData(), offset, length);
+    if(inputStream != null && inputStream.accepts(connection)) inputStream.deliver(p.getData(), offset, length);
   }
 
-  private void sendACK(DatagramPacket p, int seqNumber) throws IOException {  // Envia o ACK
-    DatagramPacket ack = new DatagramPacket(new byte[0], 0);
-    ack.setAddress(p.getAddress());
-    ack.setPort(p.getPort());
-    this.send(ack, seqNumber, true);
+  private void bufferPacket(Connection connection, DatagramPacket p, int seqNum) throws IOException { // Armazena uma cópia do segmento fora de ordem em um buffer do pool (o buffer de recepção é reutilizado), devolvida após a entrega
+    int length = p.getLength();
+    FileReceiver fileReceiver = this.fileReceiver;
+    if(fileReceiver != null && readInt(p.getData(), 8) == DATA && fileReceiver.accepts(connection) && fileReceiver.write(seqNum, p.getData(), HEADER_SIZE, p.getLength() - HEADER_SIZE)) {
+      length = HEADER_SIZE; // Dados de arquivo já escritos na sua posição, armazena apenas o header
+    }
+    byte[] data = bufferPool.lease(length);
+    System.arraycopy(p.getData(), p.getOffset(), data, 0, length);
+    synchronized(connection.receiveBuffer) { // Sempre dentro da janela de recepção, cada número de sequência tem a sua posição
+      int slot = slot(seqNum);
+      if(connection.receiveBuffer[slot] != null) {
+        bufferPool.release(connection.receiveBuffer[slot]);
+      } else {
+        connection.bufferedCount++;
+      }
+      connection.receiveBuffer[slot] = data;
+      connection.receiveLengths[slot] = length;
+    }
+  }
+
+  private boolean deliverBuffered(Connection connection) throws IOException { // Entrega os pacotes armazenados que agora estão em ordem, retorna se algum foi entregue
+    boolean delivered = false;
+    DatagramPacket p = connection.bufferedPacket;
+    while(takeBuffered(connection, connection.expectedSeqNum, p)) {
+      try {
+        deliver(connection, p);
+      } finally {
+        bufferPool.release(p.getData());
+      }
+      delivered = true;
+    }
+    return delivered;
+  }
+
+  private boolean takeBuffered(Connection connection, int seqNum, DatagramPacket p) { // Remove o segmento armazenado com o número de sequência para p, false se ainda não chegou
+    synchronized(connection.receiveBuffer) {
+      int slot = slot(seqNum);
+      byte[] data = connection.receiveBuffer[slot];
+      if(data == null || readInt(data, 4) != seqNum) return false;
+      connection.receiveBuffer[slot] = null;
+      connection.bufferedCount--;
+      p.setData(data, 0, connection.receiveLengths[slot]);
+      return true;
+    }
+  }
+
+  private int writeSackBlocks(Connection connection, byte[] data, int offset) { // Escreve os intervalos [início, fim] de pacotes armazenados fora de ordem, retorna a quantidade de bytes
+    if(!config.isSack()) return 0;
+    int position = offset;
+    int limit = offset + MAX_SACK_BLOCKS * 8;
+    int start = -1;
+    int end = -1;
+    synchronized(connection.receiveBuffer) { // Os pacotes só são devolvidos ao pool fora do buffer, o header lido aqui é sempre válido
+      if(connection.bufferedCount == 0) return 0;
+      int expectedSeqNum = connection.expectedSeqNum;
+      for(int seqNum = expectedSeqNum + 1 ; seqNum < expectedSeqNum + config.getWindowSize() ; seqNum++) {
+        byte[] buffered = connection.receiveBuffer[slot(seqNum)];
+        if(buffered == null || readInt(buffered, 4) != seqNum) continue;
+        if(start != -1 && seqNum == end + 1) {
+          end = seqNum;
+          continue;
+        }
+        if(start != -1) {
+          writeInt(data, position, start);
+          writeInt(data, position + 4, end);
+          position += 8;
+          if(position == limit) break;
+        }
+        start = seqNum;
+        end = seqNum;
+      }
+    }
+    if(start != -1 && position < limit) {
+      writeInt(data, position, start);
+      writeInt(data, position + 4, end);
+      position += 8;
+    }
+    return position - offset;
+  }
+
+  private void readSackBlocks(DatagramPacket p) { // Marca como confirmados os pacotes informados nos intervalos SACK do ACK
+    byte[] data = p.getData();
+    for(int position = HEADER_SIZE ; position + 8 <= p.getLength() ; position += 8) {
+      int start = Math.max(readInt(data, position), base);
+      int end = Math.min(readInt(data, position + 4), lastSeqNum);
+      for(int seqNum = start ; seqNum <= end ; seqNum++) {
+        if(isSelectiveRepeat()) {
+          acknowledgePacket(seqNum, true);
+        } else {
+          markSacked(seqNum);
+        }
+      }
+    }
+  }
+
+  private synchronized void markSacked(int seqNum) { // Go-Back-N: o pacote não é reenviado, mas a base só avança com o ACK cumulativo
+    if(seqNum < base || seqNum > lastSeqNum) return; // Intervalo lido antes da base avançar ou da posição ser reutilizada
+    ackedPackets[slot(seqNum)] = true;
+  }
+
+  private void sendDelayedAck(Connection connection, int seqNum) { // Acumula ACKs de pacotes em ordem em um único ACK cumulativo
+    if(config.getDelayedAckCount() <= 1) {
+      connection.ackSender.queue(seqNum);
+      return;
+    }
+
+    boolean flush;
+    boolean armTimer;
+    synchronized(connection.delayedAckLock) {
+      connection.pendingAckSeqNum = seqNum;
+      connection.pendingAckCount++;
+      flush = connection.pendingAckCount >= config.getDelayedAckCount();
+      armTimer = connection.pendingAckCount == 1;
+    }
+
+    if(flush) {
+      flushDelayedAck(connection);
+    } else if(armTimer) {
+      timerWheel.schedule(connection.delayedAckTimer, seqNum, config.getDelayedAckMS());
+    }
+  }
+
+  private void sendImmediateAck(Connection connection, int seqNum) { // Envia o ACK sem atraso, descartando o ACK atrasado que ele já cobre
+    synchronized(connection.delayedAckLock) {
+      connection.pendingAckCount = 0;
+    }
+    timerWheel.cancel(connection.delayedAckTimer);
+    connection.ackSender.queue(seqNum);
+  }
+
+  private void flushDelayedAck(Connection connection) { // Envia o ACK cumulativo pendente
+    int seqNum;
+    synchronized(connection.delayedAckLock) {
+      if(connection.pendingAckCount == 0) return;
+      seqNum = connection.pendingAckSeqNum;
+      connection.pendingAckCount = 0;
+    }
+    timerWheel.cancel(connection.delayedAckTimer);
+    connection.ackSender.queue(seqNum);
+  }
+
+  private void sendACK(Connection connection, int seqNumber) throws IOException {  // Envia o ACK
+    DatagramPacket ack = ackPacket.get();
+    byte[] data = ack.getData();
+    int sackLength = writeSackBlocks(connection, data, HEADER_SIZE);
+    writeHeader(data, seqNumber, ACK, sackLength);
+    ack.setData(data, 0, HEADER_SIZE + sackLength);
+    ack.setAddress(connection.address);
+    ack.setPort(connection.port);
+    this.sendSegment(ack);
   }
 
   public void receiveACK() throws IOException { // Recebe os ACKs
-    this.receive(1024);
-    if((this.timer != null && this.timer.getPacketNumber() < base) || base > sendingDataPackets.size()) {
+    this.receive(MAX_SEGMENT_SIZE);
+    updateTimer();
+  }
+
+  private void updateTimer() { // Ajusta o timer do go back n após cada datagrama recebido pelo remetente
+    if(isSelectiveRepeat()) return; // No selective repeat os timers são individuais e gerenciados em acknowledgePacket
+    if((this.timer.isScheduled() && this.timer.getId() < base) || base > lastSeqNum) {
       stopTimer(); // Para o timer se recebeu todos os ACKs da janela de envio
-      if(base <= sendingDataPackets.size()) {
+      if(base <= lastSeqNum) {
         startTimer(base); // Se não recebeu todos os ACKs, reinicia o timer
       }
     } else {
@@ -336,13 +1395,12 @@ public class ReliableChannel extends DatagramSocket { // Canal de comunicação
   }
 
   private synchronized void validateAndStartTimer() {
-    if(this.timer == null && base < sendingDataPackets.size()) { // Se não recebeu todos os ACKs, mas o timer não está rodando, reinicia o timer
+    if(!this.timer.isScheduled() && base <= lastSeqNum) { // Se não recebeu todos os ACKs, mas o timer não está rodando, reinicia o timer
       startTimer(base);
     }
   }
 
-  private void buildSegment(DatagramPacket p, boolean isAck, int segmentSequenceNumber) { // Constrói o segmento UDP com o header definido
-    byte[] messageBytes = p.getData();
+  private void buildSegment(DatagramPacket p, int segmentType, int segmentSequenceNumber) { // Constrói o segmento UDP com o header definido
     int definedSequenceNumber;
     if(segmentSequenceNumber != -1) { // Se o número de sequência for diferente de -1, utiliza o número de sequência fornecido (para ACKs e retransmissões)
       definedSequenceNumber = segmentSequenceNumber;
@@ -350,215 +1408,262 @@ public class ReliableChannel extends DatagramSocket { // Canal de comunicação
       definedSequenceNumber = getSequenceNumber();
     }
 
-    byte[] seqNumber = java.nio.ByteBuffer.allocate(4).putInt(definedSequenceNumber).array();
-    byte[] isAckBytes = java.nio.ByteBuffer.allocate(4).putInt(isAck ? 1 : 0).array();
+    byte[] data = new byte[HEADER_SIZE + p.getLength()];
+    System.arraycopy(p.getData(), p.getOffset(), data, HEADER_SIZE, p.getLength()); // Após o header, o restante da mensagem é o conteúdo de fato
+    writeHeader(data, definedSequenceNumber, segmentType, p.getLength());
+    p.setData(data);
+  }
+
+  private void writeHeader(byte[] data, int seqNum, int segmentType, int payloadLength) { // Escreve o header no próprio buffer do segmento, após os dados
+    writeInt(data, 4, seqNum); // 4 Bytes seguintes ao checksum representam o número de sequência
+    writeInt(data, 8, segmentType); // 4 bytes seguintes indicam o tipo do segmento (dados, ack ou fin)
+    writeInt(data, 0, checksum(data, HEADER_SIZE + payloadLength)); // Primeiros 4 bytes do segmento representam o checksum
+  }
 
-    int sum = calculateChecksum(messageBytes, seqNumber, isAckBytes);
+  private int checksum(byte[] data, int length) { // Checksum do segmento após o campo de checksum (header e dados, sem cópias)
+    Checksum checksum = this.checksum.get();
+    checksum.reset();
+    checksum.update(data, 4, length - 4);
+    return (int) checksum.getValue();
+  }
 
-    byte[] checksum = java.nio.ByteBuffer.allocate(4).putInt(sum).array();
+  private Checksum createChecksum() { // Algoritmo definido no config.json, CRC32C utiliza instruções de hardware quando disponíveis
+    if(config.getChecksum().equalsIgnoreCase("sum")) return new ByteSumChecksum();
+    return new CRC32C();
+  }
 
-    byte[] data = new byte[checksum.length + seqNumber.length + isAckBytes.length + messageBytes.length];
-    System.arraycopy(checksum, 0, data, 0, checksum.length);  // Primeiros 4 bytes da mensagem representam o checksum
-    System.arraycopy(seqNumber, 0, data, checksum.length, seqNumber.length); // 4 Bytes seguintes representam o número de sequência
-    System.arraycopy(isAckBytes, 0, data, checksum.length + seqNumber.length, isAckBytes.length); // 4 bytes seguinte indica se é ack
-    System.arraycopy(messageBytes, 0, data, checksum.length + seqNumber.length + isAckBytes.length, messageBytes.length); // Restante da mensagem é o conteúdo de fato
+  private int readInt(byte[] data, int offset) {
+    return ((data[offset] & 0xFF) << 24) | ((data[offset + 1] & 0xFF) << 16) | ((data[offset + 2] & 0xFF) << 8) | (data[offset + 3] & 0xFF);
+  }
 
-    p.setData(data);
-    p.setLength(data.length);
+  private void writeInt(byte[] data, int offset, int value) {
+    data[offset] = (byte) (value >>> 24);
+    data[offset + 1] = (byte) (value >>> 16);
+    data[offset + 2] = (byte) (value >>> 8);
+    data[offset + 3] = (byte) value;
   }
 
+
   private void applyErrorsAndSend(DatagramPacket p) throws IOException { // Aplica falhas e envia a mensagem
-    boolean eliminated = randomize(config.getEliminateProbability());
-    boolean cut = randomize(config.getCutProbability());
-    boolean delayed = randomize(config.getDelayProbability());
-    boolean corrupted = randomize(config.getCorruptProbability());
-    boolean duplicated = randomize(config.getDuplicateProbability());
+    Impairment.Direction direction = readInt(p.getData(), p.getOffset() + 8) == ACK ? Impairment.Direction.ACK : Impairment.Direction.DATA; // Os dados saem do envio (sendLock) e os ACKs do ACKSender da conexão: cada sequência de sorteios é consumida em ordem
+    boolean eliminated = impairment.lose(p, direction, config.getEliminateProbability());
+    boolean cut = randomize(p, direction, config.getCutProbability());
+    boolean delayed = randomize(p, direction, config.getDelayProbability());
+    boolean corrupted = randomize(p, direction, config.getCorruptProbability());
+    boolean duplicated = randomize(p, direction, config.getDuplicateProbability());
 
     if(eliminated) { // Verifica se a mensagem deve ser eliminada
-      incrementCount(eliminateCount, getClientKey(p));
-      logMessage(p, redText("Eliminada"), false);
+      sentMetrics.increment(p, Sent.ELIMINATED);
+      packetLog.packet(PacketLog.Level.WARN, PacketLog.Color.RED, "Eliminada", p, false);
       return;
     }
 
-    if(cut) { // Verifica se a mensagem deve ser cortada - Sempre é cortada se > 1024 bytes
-      this.cutMessage(p);
-    }
-    
-    if(delayed) { // Verifica se a mensagem deve ser atrasada
-      this.delayMessage(p);
-    }
-    
-    if(corrupted) { // Verifica se a mensagem deve ser corrompida
-      this.corruptMesage(p);
-    }
-    
-    if(duplicated) { // Verifica se a mensagem deve ser duplicada
-      this.duplicateMessage(p);
-    }
+    int length = p.getLength();
+    int corruptedIndex = -1;
+    try {
+      if(cut) { // Verifica se a mensagem deve ser cortada - Sempre é cortada se > 1024 bytes
+        this.cutMessage(p);
+      }
+      
+      if(delayed) { // Verifica se a mensagem deve ser atrasada
+        this.delayMessage(p);
+      }
+      
+      if(corrupted) { // Verifica se a mensagem deve ser corrompida
+        corruptedIndex = this.corruptMesage(p, direction);
+      }
+      
+      if(duplicated) { // Verifica se a mensagem deve ser duplicada
+        this.duplicateMessage(p, direction, delayed);
+      }
 
-    if(!eliminated && !delayed && !corrupted && !duplicated) {
-      logMessage(p, greenText("Normal"), false);
+      if(!eliminated && !delayed && !corrupted && !duplicated) {
+        packetLog.packet(PacketLog.Level.INFO, PacketLog.Color.GREEN, "Normal", p, false);
+      }
+
+      release(p, direction, delayed); // Envia a mensagem
+    } finally { // Desfaz o corte e a corrupção, o segmento armazenado é reutilizado nas retransmissões
+      if(corruptedIndex != -1) p.getData()[corruptedIndex] -= 1;
+      p.setLength(length);
     }
+  }
 
-    super.send(p); // Envia a mensagem
+  private void delayMessage(DatagramPacket p) { // Método para atrasar a mensagem (o envio é feito pela fila de atraso)
+    packetLog.packet(PacketLog.Level.WARN, PacketLog.Color.RED, "Atrasada", p, false);
+    sentMetrics.increment(p, Sent.DELAYED);
   }
 
-  private void delayMessage(DatagramPacket p) { // Método para atrasar a mensagem
-    logMessage(p, redText("Atrasada"), false);
-    try {
-      Thread.sleep(config.getDelayMS());
-      incrementCount(delayCount, getClientKey(p));
-    } catch(InterruptedException e) {
-      System.out.println("Error while generating delay");
-      e.printStackTrace();
-      System.exit(1);
+  private void release(DatagramPacket p, Impairment.Direction direction, boolean delayed) throws IOException { // Envia imediatamente ou agenda o envio na fila de atraso
+    if(delayed) {
+      delayLine.schedule(p, getDelay(p, direction));
+    } else {
+      transmit(p);
     }
   }
 
-  private void corruptMesage(DatagramPacket p) throws IOException { // Método para corromper a mensagem
-    byte[] data = p.getData();
-    data[random.nextInt(data.length)] += 1;
-    incrementCount(corruptCount, getClientKey(p));
-    logMessage(p, redText("Corrompida"), false);
+  private long getDelay(DatagramPacket p, Impairment.Direction direction) { // delayMS com variação uniforme de até delayJitterMS para mais ou para menos
+    int jitter = config.getDelayJitterMS();
+    if(jitter <= 0) return config.getDelayMS();
+    return Math.max(0, config.getDelayMS() + impairment.nextInt(p, direction, 2 * jitter + 1) - jitter);
+  }
+
+  private int corruptMesage(DatagramPacket p, Impairment.Direction direction) throws IOException { // Método para corromper a mensagem, retorna a posição do byte alterado
+    int index = p.getOffset() + impairment.nextInt(p, direction, p.getLength());
+    p.getData()[index] += 1;
+    sentMetrics.increment(p, Sent.CORRUPTED);
+    packetLog.packet(PacketLog.Level.WARN, PacketLog.Color.RED, "Corrompida", p, false);
+    return index;
   }
 
   private void cutMessage(DatagramPacket p) { // Método para cortar a mensagem
     if(p.getLength() > config.getCutBytes()) {
-      byte[] newData = new byte[config.getCutBytes()];
-      byte[] oldData = p.getData();
-      for (int i = 0; i < newData.length; i++) {
-        newData[i] = oldData[i];
-      }
-      p.setData(newData);
-      p.setLength(newData.length);
-      incrementCount(cutCount, getClientKey(p));
-      logMessage(p, redText("Cortada"), false);
+      p.setLength(config.getCutBytes());
+      sentMetrics.increment(p, Sent.CUT);
+      packetLog.packet(PacketLog.Level.WARN, PacketLog.Color.RED, "Cortada", p, false);
     }
   }
 
-  private void duplicateMessage(DatagramPacket p) throws IOException { // Método para duplicar a mensagem
-    logMessage(p, redText("Duplicada"), false);
-    super.send(p);
-    incrementCount(duplicateCount, getClientKey(p));
+  private void duplicateMessage(DatagramPacket p, Impairment.Direction direction, boolean delayed) throws IOException { // Método para duplicar a mensagem
+    packetLog.packet(PacketLog.Level.WARN, PacketLog.Color.RED, "Duplicada", p, false);
+    release(p, direction, delayed);
+    sentMetrics.increment(p, Sent.DUPLICATED);
   }
 
-  private boolean randomize(int probability) {
-    return random.nextInt(100) < probability;
+  private void transmit(DatagramPacket p) throws IOException { // Envia o datagrama pelo socket ou pelo DatagramChannel
+    if(datagramChannel == null) {
+      super.send(p);
+    } else {
+      datagramChannel.send(ByteBuffer.wrap(p.getData(), p.getOffset(), p.getLength()), p.getSocketAddress());
+    }
   }
 
-  private String getClientKey(DatagramPacket p) {
-    return p.getAddress().getHostAddress() + ":" + p.getPort();
+  private boolean randomize(DatagramPacket p, Impairment.Direction direction, int probability) {
+    return impairment.chance(p, direction, probability);
   }
 
-  private int getSegmentSeqNumber(DatagramPacket p) {
-    byte[] data = p.getData();
-    byte[] seqNumber = Arrays.copyOfRange(data, 4, 8);
+  private Connection getConnection(DatagramPacket p) { // Conexão com o remetente do pacote (criada no primeiro pacote recebido dele)
+    Connection connection = lastConnection;
+    if(connection == null || connection.evicted || !connection.matches(p)) {
+      connection = connections.get(p);
+      if(connection == null) connection = connections.computeIfAbsent(p.getAddress(), p.getPort(), this::newConnection);
+      lastConnection = connection;
+    }
+    connection.lastActivity = System.nanoTime();
+    return connection;
+  }
+
+  private Connection newConnection(InetAddress address, int port) { // Primeiro pacote do remetente (sob a trava do mapa de conexões)
+    Connection connection = new Connection(address, port);
+    if(config.getConnectionIdleMS() > 0) timerWheel.schedule(connection.idleTimer, 0, config.getConnectionIdleMS());
+    return connection;
+  }
+
+  private void evictIfIdle(Connection connection) { // Descarta o remetente sem pacotes há connectionIdleMS, os seus contadores entram uma última vez na próxima consolidação
+    if(closing) return;
+    long idleMS = (System.nanoTime() - connection.lastActivity) / 1_000_000L;
+    FileReceiver fileReceiver = this.fileReceiver;
+    boolean bound = (inputStream != null && inputStream.isBoundTo(connection)) || (fileReceiver != null && fileReceiver.isBoundTo(connection));
+    if(idleMS < config.getConnectionIdleMS() || bound) { // Ativo desde a última verificação ou ainda lido pela aplicação
+      timerWheel.schedule(connection.idleTimer, 0, bound ? config.getConnectionIdleMS() : config.getConnectionIdleMS() - idleMS);
+      return;
+    }
+    connection.evicted = true;
+    if(!connections.remove(connection.address, connection.port, connection)) return;
+    timerWheel.cancel(connection.delayedAckTimer);
+    releaseBuffered(connection);
+    receivedMetrics.remove(connection.address, connection.port);
+    sentMetrics.remove(connection.address, connection.port);
+    packetLog.event(PacketLog.Level.DEBUG, PacketLog.Color.NONE, "Remetente removido após %dms sem pacotes", idleMS);
+  }
 
-    return ByteBuffer.wrap(seqNumber).getInt();
+  private void releaseBuffered(Connection connection) { // Devolve ao pool os pacotes fora de ordem armazenados
+    synchronized(connection.receiveBuffer) {
+      for(int i = 0 ; i < connection.receiveBuffer.length ; i++) {
+        bufferPool.release(connection.receiveBuffer[i]);
+        connection.receiveBuffer[i] = null;
+      }
+      connection.bufferedCount = 0;
+    }
+  }
+
+  private String getClientKey(InetSocketAddress address) {
+    return address.getAddress().getHostAddress() + ":" + address.getPort();
   }
 
-  private synchronized void incrementCount(Map<String, Integer> map, String key) {
-    map.put(key, map.getOrDefault(key, 0) + 1);
+  public long getSentCount() { // Segmentos enviados desde a criação do canal (dados, retransmissões e ACKs)
+    return sentMetrics.total(Sent.SENT);
   }
 
-  private void logMessage(DatagramPacket p, String status, boolean received) {
-    System.out.printf("%s [%d]: %s - \"%s\"%n", received ? greenText("Recebida") : blueText("Enviada"), getSegmentSeqNumber(p), status, getMessage(p));
+  public long getRetransmissionCount() { // Segmentos de dados reenviados desde a criação do canal
+    return sentMetrics.total(Sent.RETRANSMITTED);
   }
 
   public void consolidateAll() { // Consolida todas as estatísticas
+    packetLog.flush(); // Escreve os eventos pendentes antes do resumo
     System.out.printf("Resumo de mensagens enviadas:%n");
-    sendCount.keySet().forEach((String key) -> {
-      System.out.printf("-----------%s-----------%n", key);
-      consolidateSent(key);
+    sentMetrics.snapshot().forEach((InetSocketAddress address, long[] counts) -> {
+      System.out.printf("-----------%s-----------%n", getClientKey(address));
+      consolidateSent(counts);
     });
+    System.out.printf("Timeout de retransmissão (RTO) atual: %dms (SRTT: %.1fms, RTTVAR: %.1fms)%n", rttEstimator.getRto(), Math.max(rttEstimator.getSrtt(), 0), rttEstimator.getRttvar());
+    if(config.isCongestionControl()) {
+      System.out.printf("Janela de congestionamento atual: %.1f (ssthresh: %.1f)%n", congestionWindow.getCwnd(), congestionWindow.getSsthresh());
+    }
     System.out.printf("------------------------------------%n");
 
     System.out.printf("Resumo de mensagens recebidas:%n");
-    receivedCount.keySet().forEach((String key) -> {
-      System.out.printf("-----------%s-----------%n", key);
-      consolidateReceived(key);
+    receivedMetrics.snapshot().forEach((InetSocketAddress address, long[] counts) -> {
+      System.out.printf("-----------%s-----------%n", getClientKey(address));
+      consolidateReceived(address, counts);
     });
     System.out.printf("------------------------------------%n");
+    consolidateBufferPool();
   }
 
-  private void consolidateSent(String key) { // Consolida as estatísticas de envio
-    System.out.printf("Total de mensagens enviadas: %d%n", sendCount.getOrDefault(key, 0));
-    System.out.printf("Total de mensagens eliminadas: %d%n", eliminateCount.getOrDefault(key, 0));
-    // System.out.printf("Total de mensagens atrasadas: %d%n", delayCount.getOrDefault(key, 0));
-    System.out.printf("Total de mensagens duplicadas: %d%n", duplicateCount.getOrDefault(key, 0));
-    System.out.printf("Total de mensagens corrompidas: %d%n", corruptCount.getOrDefault(key, 0));
-    System.out.printf("Total de mensagens cortadas: %d%n", cutCount.getOrDefault(key, 0));
-
-    sendCount.put(key, 0);
-    eliminateCount.put(key, 0);
-    delayCount.put(key, 0);
-    duplicateCount.put(key, 0);
-    corruptCount.put(key, 0);
-    cutCount.put(key, 0);
+  private void consolidateBufferPool() { // Estatísticas do pool de buffers desde a criação do canal
+    long hits = bufferPool.getHits();
+    long misses = bufferPool.getMisses();
+    System.out.printf("Pool de buffers: %d reutilizados, %d alocados (%.1f%% de acerto), %d em uso%n", hits, misses, hits + misses == 0 ? 0 : 100.0 * hits / (hits + misses), bufferPool.getInUse());
   }
 
-  private void consolidateReceived(String key) { // Consolida as estatísticas de recebimento
-    ArrayList<Integer> seqNumlist = seqNumberMap.getOrDefault(key, new ArrayList<>());
-    System.out.printf("Total de mensagens recebidas: %d%n", receivedCount.getOrDefault(key, 0));
-    System.out.printf("Total de mensagens perdidas (Sequence Number não encontrado): %d%n", seqNumlist.size() == 0 ? 0 : countMissingMessages(seqNumlist));
-    System.out.printf("Total de mensagens duplicadas: %d%n", receiveDuplicateCount.getOrDefault(key, 0));
-    System.out.printf("Total de mensagens corrompidas/cortadas (checksum falhou): %d%n", receivedWithFailedIntegrityCount.getOrDefault(key, 0));
-
-    sendCount.put(key, 0);
-    eliminateCount.put(key, 0);
-    delayCount.put(key, 0);
-    duplicateCount.put(key, 0);
-    corruptCount.put(key, 0);
-    cutCount.put(key, 0);
+  private void consolidateSent(long[] counts) { // Consolida as estatísticas de envio
+    System.out.printf("Total de mensagens enviadas: %d%n", counts[Sent.SENT.ordinal()]);
+    System.out.printf("Total de mensagens eliminadas: %d%n", counts[Sent.ELIMINATED.ordinal()]);
+    System.out.printf("Total de mensagens retransmitidas: %d%n", counts[Sent.RETRANSMITTED.ordinal()]);
+    // System.out.printf("Total de mensagens atrasadas: %d%n", counts[Sent.DELAYED.ordinal()]);
+    System.out.printf("Total de mensagens duplicadas: %d%n", counts[Sent.DUPLICATED.ordinal()]);
+    System.out.printf("Total de mensagens corrompidas: %d%n", counts[Sent.CORRUPTED.ordinal()]);
+    System.out.printf("Total de mensagens cortadas: %d%n", counts[Sent.CUT.ordinal()]);
   }
 
-  private int countMissingMessages(ArrayList<Integer> seqNumlist) {
-    Collections.sort(seqNumlist);
-    int missing = 0;
-    for(int i = 1; i < seqNumlist.size(); i++) {
-      if(seqNumlist.get(i) - seqNumlist.get(i - 1) > 1) {
-        missing += seqNumlist.get(i) - seqNumlist.get(i - 1) - 1;
-      }
-    }
-    missing += seqNumlist.get(0) - 1;
-
-    return missing;
+  private void consolidateReceived(InetSocketAddress address, long[] counts) { // Consolida as estatísticas de recebimento
+    Connection connection = connections.get(address.getAddress(), address.getPort());
+    System.out.printf("Total de mensagens recebidas: %d%n", counts[Received.RECEIVED.ordinal()]);
+    System.out.printf("Total de mensagens entregues (lotes separados): %d%n", counts[Received.DELIVERED.ordinal()]);
+    System.out.printf("Total de mensagens perdidas (Sequence Number não encontrado): %d%n", connection == null ? 0 : connection.receivedSeqNums.getMissing());
+    System.out.printf("Total de mensagens duplicadas: %d%n", counts[Received.DUPLICATED.ordinal()]);
+    System.out.printf("Total de mensagens corrompidas/cortadas (checksum falhou): %d%n", counts[Received.FAILED_INTEGRITY.ordinal()]);
   }
 
-  private int calculateChecksum(byte[] ...data) {
-    int sum = 0;
-    for(byte[] bArray : data) {
-      for(byte b : bArray) {
-        sum += b;
-      }
+  private String getMessage(byte[] data, int length) { // Executado pela thread do log, sobre a cópia do segmento
+    if(length < HEADER_SIZE) return "(segmento sem cabeçalho, " + length + " bytes)"; // Cortado pela simulação de erros
+    int segmentType = readInt(data, 8);
+    if(segmentType == ACK) {
+      return packetLog.colorize(PacketLog.Color.YELLOW, "ACK");
     }
-
-    return sum;
-  }
-
-  private String getMessage(DatagramPacket p) {
-    byte[] data = p.getData();
-    byte[] isAckArray = Arrays.copyOfRange(data, 8, 12);
-    int isAck = ByteBuffer.wrap(isAckArray).getInt();
-    if(isAck == 1) {
-      return yellowText("ACK");
+    if(segmentType == FIN) {
+      return packetLog.colorize(PacketLog.Color.YELLOW, "FIN");
     }
-    return new String(Arrays.copyOfRange(data, 12, data.length), StandardCharsets.UTF_8);
-  }
-
-  private String redText(String text) {
-    return REMOVE_COLORS ? text : "\u001B[31m" + text + "\u001B[0m";
-  }
-
-  private String blueText(String text) {
-    return REMOVE_COLORS ? text : "\u001B[34m" + text + "\u001B[0m";
-  }
-
-  private String greenText(String text) {
-    return REMOVE_COLORS ? text : "\u001B[32m" + text + "\u001B[0m";
-  }
-
-  private String yellowText(String text) {
-    return REMOVE_COLORS ? text : "\u001B[33m" + text + "\u001B[0m";
+    if(segmentType == FILE) {
+      return packetLog.colorize(PacketLog.Color.YELLOW, "FILE");
+    }
+    if(segmentType == BATCH) {
+      int count = 0;
+      for(int offset = HEADER_SIZE ; offset + 2 <= length ; offset += 2 + (((data[offset] & 0xFF) << 8) | (data[offset + 1] & 0xFF))) {
+        count++;
+      }
+      return packetLog.colorize(PacketLog.Color.YELLOW, "LOTE") + " (" + count + " mensagens)";
+    }
+    return new String(data, HEADER_SIZE, length - HEADER_SIZE, StandardCharsets.UTF_8);
   }
 }
@@ -1,6 +1,8 @@
+import java.lang.management.ManagementFactory;
 import java.net.DatagramPacket;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Scanner;
@@ -35,29 +37,36 @@ public class Sender {
     String receiverPortString = sc.nextLine();
     int receiverPort = receiverPortString.equals("") ? DEFAULT_RECEIVER_PORT : Integer.parseInt(receiverPortString);
 
-    System.out.println("Digite a mensagem que deseja enviar (oi):");
+    System.out.println("Digite a mensagem que deseja enviar (oi), ou o caminho de um arquivo entre [] para enviar o arquivo:");
     String message = sc.nextLine();
     message = message.equals("") ? "oi" : message;
 
     try (ReliableChannel channel = new ReliableChannel(clientPort)) {
-      System.out.println("Digite quantas vezes deseja enviar (1000):");
-      String receiverCountString = sc.nextLine();
-      int messageCount = receiverCountString.equals("") ? 1000 : Integer.parseInt(receiverCountString);
+      if(message.startsWith("[") && message.endsWith("]")) { // Arquivo: enviado direto do arquivo mapeado, sem carregá-lo em memória
+        channel.sendFile(Path.of(message.substring(1, message.length() - 1)), ipAddress, receiverPort);
+      } else {
+        System.out.println("Digite quantas vezes deseja enviar (1000):");
+        String receiverCountString = sc.nextLine();
+        int messageCount = receiverCountString.equals("") ? 1000 : Integer.parseInt(receiverCountString);
 
-      List<DatagramPacket> messages = new ArrayList<DatagramPacket>();
-      for (int i = 0; i < messageCount; i++) {
-        DatagramPacket p = new DatagramPacket(message.getBytes(), message.length());
-        p.setAddress(ipAddress);
-        p.setPort(receiverPort);
-        messages.add(p);
-      }
+        List<DatagramPacket> messages = new ArrayList<DatagramPacket>();
+        for (int i = 0; i < messageCount; i++) {
+          byte[] messageBytes = message.getBytes();
+          DatagramPacket p = new DatagramPacket(messageBytes, messageBytes.length);
+          p.setAddress(ipAddress);
+          p.setPort(receiverPort);
+          messages.add(p);
+        }
 
-      channel.send(messages); // Envia as mensagens pelo canal confiável utilizando go back n
+        channel.send(messages); // Envia as mensagens pelo canal confiável utilizando go back n
+      }
 
       channel.consolidateAll();  // Exibe consolidação das mensagens
       long finish = System.currentTimeMillis();
       long timeElapsed = finish - start;
       System.out.println("Tempo total de execução: " + timeElapsed + "ms");
+      long cpuTime = ((com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean()).getProcessCpuTime() / 1_000_000;
+      System.out.println("Tempo de CPU: " + cpuTime + "ms");
     } catch (Exception e) {
       System.out.println("Erro no envio dos pacotes para o receiver");
       e.printStackTrace();
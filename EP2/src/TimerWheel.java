@@ -0,0 +1,122 @@
+public class TimerWheel extends Thread { // Roda de timers (hashed timing wheel) compartilhada por todos os canais
+
+  public interface Listener { // Callback executado quando um timer expira
+    void expired(int id);
+  }
+
+  public static class Timeout { // Timer reutilizável: armar, cancelar e rearmar não alocam memória
+    private final Listener listener;
+    private volatile int id; // Identificador repassado ao listener (número de sequência do pacote)
+    private volatile int bucket = -1; // Posição na roda (-1 quando não está agendado)
+    private long rounds; // Voltas completas da roda que ainda faltam até expirar
+    private Timeout prev;
+    private Timeout next;
+
+    public Timeout(Listener listener) {
+      this.listener = listener;
+    }
+
+    public int getId() {
+      return id;
+    }
+
+    public boolean isScheduled() {
+      return bucket != -1;
+    }
+  }
+
+  private static final int TICK_MS = 5; // Resolução da roda
+  private static final int WHEEL_SIZE = 512; // Quantidade de posições da roda (potência de 2)
+
+  private static TimerWheel instance;
+
+  private final Timeout[] buckets = new Timeout[WHEEL_SIZE]; // Cada posição é uma lista duplamente encadeada de timers
+  private final long startTime = System.nanoTime();
+  private long currentTick = 0;
+
+  private TimerWheel() {
+    super("TimerWheel");
+    setDaemon(true);
+  }
+
+  public static synchronized TimerWheel shared() { // Retorna a roda compartilhada, iniciando sua thread no primeiro uso
+    if(instance == null) {
+      instance = new TimerWheel();
+      instance.start();
+    }
+    return instance;
+  }
+
+  public synchronized void schedule(Timeout timeout, int id, long delayMS) { // Arma (ou rearma) o timer para expirar após delayMS - O(1)
+    unlink(timeout);
+    long ticks = Math.max(1, (delayMS + TICK_MS - 1) / TICK_MS);
+    timeout.id = id;
+    timeout.rounds = (ticks - 1) / WHEEL_SIZE;
+    link(timeout, (int) ((currentTick + ticks) & (WHEEL_SIZE - 1)));
+  }
+
+  public synchronized boolean cancel(Timeout timeout) { // Cancela o timer, retorna false se ele não estava agendado - O(1)
+    if(!timeout.isScheduled()) return false;
+    unlink(timeout);
+    return true;
+  }
+
+  @Override
+  public void run() {
+    while(true) {
+      long nextTickTime = startTime + (currentTick + 1) * TICK_MS * 1_000_000L;
+      long sleepNanos = nextTickTime - System.nanoTime();
+      if(sleepNanos > 0) {
+        try {
+          Thread.sleep(sleepNanos / 1_000_000L, (int) (sleepNanos % 1_000_000L));
+        } catch (InterruptedException e) {
+          return;
+        }
+        continue;
+      }
+      synchronized(this) {
+        currentTick++;
+        expireBucket((int) (currentTick & (WHEEL_SIZE - 1)));
+      }
+    }
+  }
+
+  private void expireBucket(int bucket) { // Dispara os timers da posição atual que não têm mais voltas pendentes
+    Timeout timeout = buckets[bucket];
+    while(timeout != null) {
+      Timeout next = timeout.next;
+      if(timeout.rounds == 0) {
+        unlink(timeout);
+        try {
+          timeout.listener.expired(timeout.id); // Listeners executam na thread da roda e não devem bloquear
+        } catch (RuntimeException e) {
+          e.printStackTrace();
+        }
+      } else {
+        timeout.rounds--;
+      }
+      timeout = next;
+    }
+  }
+
+  private void link(Timeout timeout, int bucket) {
+    timeout.bucket = bucket;
+    timeout.prev = null;
+    timeout.next = buckets[bucket];
+    if(buckets[bucket] != null) buckets[bucket].prev = timeout;
+    buckets[bucket] = timeout;
+  }
+
+  private void unlink(Timeout timeout) {
+    if(!timeout.isScheduled()) return;
+    if(timeout.prev != null) {
+      timeout.prev.next = timeout.next;
+    } else {
+      buckets[timeout.bucket] = timeout.next;
+    }
+    if(timeout.next != null) timeout.next.prev = timeout.prev;
+    timeout.prev = null;
+    timeout.next = null;
+    timeout.bucket = -1;
+  }
+}
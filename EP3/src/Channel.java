@@ -7,10 +7,9 @@ import java.io.Serializable;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.SocketException;
-import java.util.Map;
 import java.util.Random;
-import java.util.concurrent.ConcurrentHashMap;
 
 class DatagramInfo implements Serializable { // Esta classe representa os dados enviados entre os roteadores
   private int id; // Identificador do roteador
@@ -44,18 +43,20 @@ public class Channel extends DatagramSocket { // Canal de comunicação
   private final int eliminateProbability = 0; // Esta variável define a probabilidade de uma mensagem ser eliminada
 
   private Random random = new Random();
+  private BufferPool bufferPool = new BufferPool(1024, 64, false); // Buffers de recepção, devolvidos após a desserialização (a thread do roteador mantém um emprestado enquanto aguarda)
 
-  private ConcurrentHashMap<String, Integer> sendCount = new ConcurrentHashMap<>(); // Contagem de mensagens enviadas para cada destino
-  private ConcurrentHashMap<String, Integer> eliminateCount = new ConcurrentHashMap<>(); // Contagem de mensagens eliminadas para cada destino
+  private enum Sent { SENT, ELIMINATED } // Contagem de mensagens enviadas e eliminadas para cada destino
+  private enum Received { RECEIVED } // Contagem de mensagens recebidas de cada destino
 
-  private ConcurrentHashMap<String, Integer> receivedCount = new ConcurrentHashMap<>(); // Contagem de mensagens recebidas de cada destino
+  private ChannelMetrics<Sent> sentMetrics = new ChannelMetrics<>(Sent.class);
+  private ChannelMetrics<Received> receivedMetrics = new ChannelMetrics<>(Received.class);
 
   public Channel(int port) throws SocketException {
     super(port);
   }
 
   public void send(DatagramPacket p) throws IOException { // Recebe pedidos de envio de segmentos UDP
-    this.incrementCount(sendCount, getClientKey(p));
+    sentMetrics.increment(p, Sent.SENT);
     this.applyErrorsAndSend(p);
   }
 
@@ -73,16 +74,20 @@ public class Channel extends DatagramSocket { // Canal de comunicação
   }
 
   public DatagramInfo receive() throws IOException { // Recebe a mensagem
-    DatagramPacket p = new DatagramPacket(new byte[1024], 1024);
-    super.receive(p);
-    incrementCount(receivedCount, getClientKey(p));
-    byte[] data = p.getData();
+    byte[] data = bufferPool.lease(1024);
     DatagramInfo datagramInfo = null;
-    try (ByteArrayInputStream bis = new ByteArrayInputStream(data);
-      ObjectInputStream ois = new ObjectInputStream(bis)) {
-      datagramInfo = (DatagramInfo) ois.readObject();
-    } catch (ClassNotFoundException e) {
-      e.printStackTrace();
+    try {
+      DatagramPacket p = new DatagramPacket(data, 1024);
+      super.receive(p);
+      receivedMetrics.increment(p, Received.RECEIVED);
+      try (ByteArrayInputStream bis = new ByteArrayInputStream(data, 0, p.getLength());
+        ObjectInputStream ois = new ObjectInputStream(bis)) {
+        datagramInfo = (DatagramInfo) ois.readObject();
+      } catch (ClassNotFoundException e) {
+        e.printStackTrace();
+      }
+    } finally {
+      bufferPool.release(data);
     }
 
     return datagramInfo;
@@ -92,7 +97,7 @@ public class Channel extends DatagramSocket { // Canal de comunicação
     boolean eliminated = randomize(eliminateProbability);
 
     if(eliminated) { // Verifica se a mensagem deve ser eliminada
-      incrementCount(eliminateCount, getClientKey(p));
+      sentMetrics.increment(p, Sent.ELIMINATED);
       logMessage(p, redText("Eliminada"), false);
       return;
     }
@@ -108,12 +113,8 @@ public class Channel extends DatagramSocket { // Canal de comunicação
     return random.nextInt(100) < probability;
   }
 
-  private String getClientKey(DatagramPacket p) {
-    return p.getAddress().getHostAddress() + ":" + p.getPort();
-  }
-
-  private synchronized void incrementCount(Map<String, Integer> map, String key) {
-    map.put(key, map.getOrDefault(key, 0) + 1);
+  private String getClientKey(InetSocketAddress address) {
+    return address.getAddress().getHostAddress() + ":" + address.getPort();
   }
 
   private void logMessage(DatagramPacket p, String status, boolean received) { // Loga mensagens enviadas e recebidas
@@ -124,37 +125,32 @@ public class Channel extends DatagramSocket { // Canal de comunicação
 
   public void consolidateAll() { // Consolida todas as estatísticas
     System.out.printf("Resumo de mensagens enviadas:%n");
-    sendCount.keySet().forEach((String key) -> {
-      System.out.printf("-----------%s-----------%n", key);
-      consolidateSent(key);
+    sentMetrics.snapshot().forEach((InetSocketAddress address, long[] counts) -> {
+      System.out.printf("-----------%s-----------%n", getClientKey(address));
+      consolidateSent(counts);
     });
     System.out.printf("------------------------------------%n");
 
     System.out.printf("Resumo de mensagens recebidas:%n");
-    receivedCount.keySet().forEach((String key) -> {
-      System.out.printf("-----------%s-----------%n", key);
-      consolidateReceived(key);
+    receivedMetrics.snapshot().forEach((InetSocketAddress address, long[] counts) -> {
+      System.out.printf("-----------%s-----------%n", getClientKey(address));
+      consolidateReceived(counts);
     });
     System.out.printf("------------------------------------%n");
+    System.out.printf("Pool de buffers: %d reutilizados, %d alocados, %d em uso%n", bufferPool.getHits(), bufferPool.getMisses(), bufferPool.getInUse());
   }
 
-  private void consolidateSent(String key) { // Consolida as estatísticas de envio
-    System.out.printf("Total de mensagens enviadas: %d%n", sendCount.getOrDefault(key, 0));
-    System.out.printf("Total de mensagens eliminadas: %d%n", eliminateCount.getOrDefault(key, 0));
-
-    sendCount.put(key, 0);
-    eliminateCount.put(key, 0);
+  private void consolidateSent(long[] counts) { // Consolida as estatísticas de envio
+    System.out.printf("Total de mensagens enviadas: %d%n", counts[Sent.SENT.ordinal()]);
+    System.out.printf("Total de mensagens eliminadas: %d%n", counts[Sent.ELIMINATED.ordinal()]);
   }
 
-  private void consolidateReceived(String key) { // Consolida as estatísticas de recebimento
-    System.out.printf("Total de mensagens recebidas: %d%n", receivedCount.getOrDefault(key, 0));
-
-    sendCount.put(key, 0);
-    eliminateCount.put(key, 0);
+  private void consolidateReceived(long[] counts) { // Consolida as estatísticas de recebimento
+    System.out.printf("Total de mensagens recebidas: %d%n", counts[Received.RECEIVED.ordinal()]);
   }
 
   public int getSentCount() {
-    return sendCount.values().stream().mapToInt(Integer::intValue).sum();
+    return (int) sentMetrics.total(Sent.SENT);
   }
 
   private String redText(String text) {
@@ -0,0 +1,71 @@
+package redes.benchmarks.ep1;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChecksumBenchmark { // Checksum calculado pelo Channel no envio e no recebimento de cada mensagem (algoritmo do config.json)
+  private static final Class<?> CHANNEL = load("Channel"); // Classe do pacote padrão, acessada por method handles
+  private static final MethodHandle CALCULATE_CHECKSUM = find("calculateChecksum", MethodType.methodType(int.class, byte[].class, int.class));
+
+  @Param({ "64", "1024" })
+  private int segmentSize;
+
+  private AutoCloseable channel;
+  private byte[] segment;
+
+  @Setup
+  public void setup() throws Exception {
+    channel = (AutoCloseable) CHANNEL.getConstructor(int.class).newInstance(0); // Porta efêmera, o config.json é lido do diretório atual
+    segment = new byte[segmentSize];
+    new Random(1).nextBytes(segment);
+  }
+
+  @TearDown
+  public void tearDown() throws Exception {
+    channel.close();
+  }
+
+  @Benchmark
+  public int calculateChecksum() throws Throwable {
+    return (int) CALCULATE_CHECKSUM.invokeExact((Object) channel, segment, segment.length);
+  }
+
+  private static Class<?> load(String name) {
+    try {
+      return Class.forName(name);
+    } catch (ClassNotFoundException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static MethodHandle find(String name, MethodType type) { // Handle do método privado, com o canal tipado como Object para invokeExact
+    try {
+      MethodHandle handle = MethodHandles.privateLookupIn(CHANNEL, MethodHandles.lookup()).findVirtual(CHANNEL, name, type);
+      return handle.asType(handle.type().changeParameterType(0, Object.class));
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
@@ -0,0 +1,66 @@
+package redes.benchmarks.ep2;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+import java.util.zip.CRC32C;
+import java.util.zip.Checksum;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChecksumBenchmark { // Custo do checksum de um segmento completo para cada algoritmo aceito em checksum no config.json
+  private static final int SEGMENT_SIZE = 1024;
+
+  @Param({ "sum", "crc32", "crc32c" })
+  private String algorithm;
+
+  private Checksum checksum;
+  private byte[] segment;
+
+  @Setup
+  public void setup() {
+    checksum = algorithm(algorithm).get();
+    segment = new byte[SEGMENT_SIZE];
+    new Random(1).nextBytes(segment);
+  }
+
+  @Benchmark
+  public long checksum() { // Como o canal faz: reset + update de tudo após o campo do checksum
+    checksum.reset();
+    checksum.update(segment, 4, segment.length - 4);
+    return checksum.getValue();
+  }
+
+  static Supplier<Checksum> algorithm(String name) {
+    switch(name) {
+      case "crc32": return CRC32::new;
+      case "crc32c": return CRC32C::new;
+      default: return ChecksumBenchmark::byteSum;
+    }
+  }
+
+  private static Checksum byteSum() { // ByteSumChecksum fica no pacote padrão, não pode ser importada
+    try {
+      return (Checksum) Class.forName("ByteSumChecksum").getConstructor().newInstance();
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
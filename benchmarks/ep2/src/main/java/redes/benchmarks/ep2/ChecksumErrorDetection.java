@@ -0,0 +1,69 @@
+package redes.benchmarks.ep2;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Supplier;
+import java.util.zip.Checksum;
+
+public class ChecksumErrorDetection { // Corrupções não detectadas por cada algoritmo de checksum do canal (a vazão é medida pelo ChecksumBenchmark)
+  private static final int SEGMENT_SIZE = 1024;
+  private static final int TRIALS = 100000; // Segmentos corrompidos por tipo de falha
+  private static final List<String> NAMES = List.of("sum", "crc32", "crc32c");
+
+  public static void main(String[] args) {
+    List<Supplier<Checksum>> algorithms = NAMES.stream().map(ChecksumBenchmark::algorithm).toList();
+
+    System.out.printf("%-8s %18s %18s %18s%n", "", "troca de bytes", "+1/-1", "4 bytes aleatórios");
+    for(int i = 0 ; i < NAMES.size() ; i++) {
+      Checksum checksum = algorithms.get(i).get();
+      System.out.printf("%-8s %18s %18s %18s%n", NAMES.get(i),
+        undetected(checksum, ChecksumErrorDetection::swapBytes), undetected(checksum, ChecksumErrorDetection::compensate), undetected(checksum, ChecksumErrorDetection::randomBytes));
+    }
+    System.out.println("Corrupções não detectadas a cada " + TRIALS + " segmentos");
+  }
+
+  private interface Corruption {
+    void apply(byte[] data, Random random);
+  }
+
+  private static int undetected(Checksum checksum, Corruption corruption) { // Quantidade de segmentos corrompidos com o mesmo checksum do original
+    Random random = new Random(2);
+    byte[] original = new byte[SEGMENT_SIZE];
+    byte[] corrupted = new byte[SEGMENT_SIZE];
+    int undetected = 0;
+    for(int i = 0 ; i < TRIALS ; i++) {
+      random.nextBytes(original);
+      System.arraycopy(original, 0, corrupted, 0, SEGMENT_SIZE);
+      corruption.apply(corrupted, random);
+      if(Arrays.equals(original, corrupted)) continue;
+      if(value(checksum, original) == value(checksum, corrupted)) undetected++;
+    }
+    return undetected;
+  }
+
+  private static int value(Checksum checksum, byte[] data) {
+    checksum.reset();
+    checksum.update(data, 4, data.length - 4);
+    return (int) checksum.getValue();
+  }
+
+  private static void swapBytes(byte[] data, Random random) { // Bytes reordenados
+    int a = 4 + random.nextInt(data.length - 4);
+    int b = 4 + random.nextInt(data.length - 4);
+    byte aux = data[a];
+    data[a] = data[b];
+    data[b] = aux;
+  }
+
+  private static void compensate(byte[] data, Random random) { // Erros que se compensam na soma
+    data[4 + random.nextInt(data.length - 4)] += 1;
+    data[4 + random.nextInt(data.length - 4)] -= 1;
+  }
+
+  private static void randomBytes(byte[] data, Random random) { // Até 4 bytes sobrescritos
+    for(int i = 0 ; i < 4 ; i++) {
+      data[4 + random.nextInt(data.length - 4)] = (byte) random.nextInt(256);
+    }
+  }
+}
@@ -0,0 +1,97 @@
+package redes.benchmarks.ep2;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SegmentBenchmark { // Custo por pacote do ReliableChannel: montagem do segmento, leitura do header e checksum (algoritmo do config.json)
+  private static final int DATA = 0;
+  private static final int HEADER_SIZE = 12;
+
+  private static final Class<?> CHANNEL = load("ReliableChannel"); // Classe do pacote padrão, acessada por method handles
+  private static final MethodHandle BUILD_SEGMENT = find("buildSegment", MethodType.methodType(void.class, DatagramPacket.class, int.class, int.class));
+  private static final MethodHandle CHECKSUM = find("checksum", MethodType.methodType(int.class, byte[].class, int.class));
+  private static final MethodHandle READ_INT = find("readInt", MethodType.methodType(int.class, byte[].class, int.class));
+
+  @Param({ "64", "1024" })
+  private int payloadSize;
+
+  private AutoCloseable channel;
+  private byte[] payload;
+  private DatagramPacket packet;
+  private byte[] segment; // Segmento montado pelo canal, como chega ao receptor
+
+  @Setup
+  public void setup() throws Throwable {
+    channel = (AutoCloseable) CHANNEL.getConstructor(int.class).newInstance(0); // Porta efêmera, o config.json é lido do diretório atual
+    payload = new byte[payloadSize];
+    new Random(1).nextBytes(payload);
+    packet = new DatagramPacket(payload, payloadSize, InetAddress.getLoopbackAddress(), 9);
+    segment = buildSegment();
+  }
+
+  @TearDown
+  public void tearDown() throws Exception {
+    channel.close();
+  }
+
+  @Benchmark
+  public byte[] buildSegment() throws Throwable { // Cópia dos dados após o header, escrita do header e checksum
+    packet.setData(payload); // buildSegment substitui o buffer do pacote
+    BUILD_SEGMENT.invokeExact((Object) channel, packet, DATA, 1);
+    return packet.getData();
+  }
+
+  @Benchmark
+  public int parseHeader() throws Throwable { // Verificação do checksum e leitura do header, como no recebimento de cada segmento
+    if(segment.length < HEADER_SIZE || (int) CHECKSUM.invokeExact((Object) channel, segment, segment.length) != (int) READ_INT.invokeExact((Object) channel, segment, 0)) return -1;
+    int seqNumber = (int) READ_INT.invokeExact((Object) channel, segment, 4);
+    int segmentType = (int) READ_INT.invokeExact((Object) channel, segment, 8);
+    return seqNumber ^ segmentType;
+  }
+
+  @Benchmark
+  public int checksum() throws Throwable {
+    return (int) CHECKSUM.invokeExact((Object) channel, segment, segment.length);
+  }
+
+  private static Class<?> load(String name) {
+    try {
+      return Class.forName(name);
+    } catch (ClassNotFoundException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static MethodHandle find(String name, MethodType type) { // Handle do método privado, com o canal tipado como Object para invokeExact
+    try {
+      MethodHandle handle = MethodHandles.privateLookupIn(CHANNEL, MethodHandles.lookup()).findVirtual(CHANNEL, name, type);
+      return handle.asType(handle.type().changeParameterType(0, Object.class));
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
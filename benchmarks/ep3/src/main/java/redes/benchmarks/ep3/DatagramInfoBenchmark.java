@@ -0,0 +1,64 @@
+package redes.benchmarks.ep3;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.reflect.Constructor;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DatagramInfoBenchmark { // Serialização do vetor de distâncias, feita pelo Channel a cada envio e recebimento
+  @Param({ "8", "64" })
+  private int routers;
+
+  private Object info; // DatagramInfo, classe do pacote padrão criada por reflexão
+  private byte[] data;
+
+  @Setup
+  public void setup() throws Exception {
+    Constructor<?> constructor = Class.forName("DatagramInfo").getDeclaredConstructor(int.class, int[].class);
+    constructor.setAccessible(true);
+    int[] vector = new int[routers];
+    for(int i = 1 ; i < routers ; i++) {
+      vector[i] = i;
+    }
+    info = constructor.newInstance(1, vector);
+    data = serialize();
+  }
+
+  @Benchmark
+  public byte[] serialize() throws IOException { // Como em Channel.send(DatagramInfo, int)
+    try (ByteArrayOutputStream bos = new ByteArrayOutputStream();
+      ObjectOutputStream oos = new ObjectOutputStream(bos)) {
+      oos.writeObject(info);
+      return bos.toByteArray();
+    }
+  }
+
+  @Benchmark
+  public Object deserialize() throws IOException, ClassNotFoundException { // Como em Channel.receive(), que lê de um buffer de 1024 bytes
+    try (ByteArrayInputStream bis = new ByteArrayInputStream(data);
+      ObjectInputStream ois = new ObjectInputStream(bis)) {
+      return ois.readObject();
+    }
+  }
+}
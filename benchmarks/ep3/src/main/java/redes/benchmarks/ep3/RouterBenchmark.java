@@ -0,0 +1,107 @@
+package redes.benchmarks.ep3;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RouterBenchmark { // Processamento de um vetor de distâncias recebido do vizinho 1 pelo roteador 2 (que não escreve o log)
+  private static final int MY_ID = 2;
+
+  private static final Class<?> ROUTER = load("Router"); // Classes do pacote padrão, acessadas por reflexão
+  private static final Class<?> INFO = load("DatagramInfo");
+  private static final MethodHandle CALCULATE = find("calculateNewDistanceVector", MethodType.methodType(void.class, INFO));
+
+  @Param({ "8", "64" })
+  private int routers;
+
+  private Object router;
+  private Object info;
+  private int[] distanceVector; // Mesmo array utilizado pelo roteador
+  private int[] routingTable;
+  private int[] initialDistanceVector;
+  private int[] initialRoutingTable;
+
+  @Setup
+  public void setup() throws Exception {
+    distanceVector = new int[routers]; // Vizinhos diretos: roteadores 1 e 3
+    distanceVector[0] = 1;
+    distanceVector[2] = 1;
+    initialDistanceVector = distanceVector.clone();
+    router = ROUTER.getConstructor(int.class, int[].class, String.class, int.class, int.class, int.class, int.class)
+      .newInstance(MY_ID, distanceVector, "", -1, -1, 2, 2); // Abre o socket na porta 10002
+    routingTable = (int[]) field("routingTable").get(router);
+    initialRoutingTable = routingTable.clone();
+
+    int[] receivedVector = new int[routers]; // Roteador 1 alcança todos os demais
+    for(int i = 1 ; i < routers ; i++) {
+      receivedVector[i] = i;
+    }
+    Constructor<?> constructor = INFO.getDeclaredConstructor(int.class, int[].class);
+    constructor.setAccessible(true);
+    info = constructor.newInstance(1, receivedVector);
+  }
+
+  @TearDown
+  public void tearDown() throws Exception {
+    ((AutoCloseable) field("channel").get(router)).close();
+  }
+
+  @Benchmark
+  public int[] unchanged() throws Throwable { // Vetor já incorporado: caso comum após a convergência
+    CALCULATE.invokeExact(router, info);
+    return distanceVector;
+  }
+
+  @Benchmark
+  public int[] updated() throws Throwable { // Vetor inicial, todas as rotas do vizinho são novas
+    System.arraycopy(initialDistanceVector, 0, distanceVector, 0, routers);
+    System.arraycopy(initialRoutingTable, 0, routingTable, 0, routers);
+    CALCULATE.invokeExact(router, info);
+    return distanceVector;
+  }
+
+  private Field field(String name) throws NoSuchFieldException {
+    Field field = ROUTER.getDeclaredField(name);
+    field.setAccessible(true);
+    return field;
+  }
+
+  private static Class<?> load(String name) {
+    try {
+      return Class.forName(name);
+    } catch (ClassNotFoundException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static MethodHandle find(String name, MethodType type) {
+    try {
+      MethodHandle handle = MethodHandles.privateLookupIn(ROUTER, MethodHandles.lookup()).findVirtual(ROUTER, name, type);
+      return handle.asType(MethodType.methodType(void.class, Object.class, Object.class));
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
@@ -0,0 +1,122 @@
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+public class BufferPool { // Buffers de tamanho fixo emprestados por pacote e devolvidos após a entrega ou o envio, evitando uma alocação a cada pacote
+
+  private static class Stripe { // Lista de buffers livres de um grupo de threads, cada uma com a sua trava
+    private final byte[][] buffers;
+    private int count = 0;
+
+    private Stripe(int capacity) {
+      this.buffers = new byte[capacity][];
+    }
+
+    private synchronized byte[] poll() {
+      if(count == 0) return null;
+      byte[] buffer = buffers[--count];
+      buffers[count] = null;
+      return buffer;
+    }
+
+    private synchronized boolean offer(byte[] buffer) {
+      if(count == buffers.length) return false;
+      buffers[count++] = buffer;
+      return true;
+    }
+  }
+
+  private final int bufferSize;
+  private final Stripe[] stripes; // Buffers devolvidos, divididos por thread: empréstimos e devoluções de threads diferentes raramente disputam a mesma trava
+  private final int mask;
+  private final boolean leakDetection; // Modo de depuração: guarda onde cada buffer emprestado foi obtido e recusa devoluções repetidas
+  private final Map<byte[], Throwable> leased = new IdentityHashMap<>(); // Apenas com leakDetection: buffers emprestados e ainda não devolvidos, com a origem do empréstimo
+  private final LongAdder hits = new LongAdder(); // Empréstimos atendidos por um buffer devolvido
+  private final LongAdder misses = new LongAdder(); // Empréstimos que alocaram um buffer novo
+  private final LongAdder inUse = new LongAdder(); // Buffers do tamanho do pool emprestados e ainda não devolvidos
+
+  public BufferPool(int bufferSize, int capacity, boolean leakDetection) {
+    int stripeCount = Integer.highestOneBit(Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), capacity)));
+    this.bufferSize = bufferSize;
+    this.stripes = new Stripe[stripeCount];
+    for(int i = 0 ; i < stripeCount ; i++) { // A capacidade total é dividida entre as listas
+      stripes[i] = new Stripe(capacity / stripeCount + (i < capacity % stripeCount ? 1 : 0));
+    }
+    this.mask = stripeCount - 1;
+    this.leakDetection = leakDetection;
+  }
+
+  public byte[] lease(int length) { // Buffer com pelo menos length bytes, pedidos maiores que bufferSize são alocados fora do pool
+    if(length > bufferSize) {
+      misses.increment();
+      return new byte[length];
+    }
+    byte[] buffer = poll();
+    if(buffer == null) {
+      misses.increment();
+      buffer = new byte[bufferSize];
+    } else {
+      hits.increment();
+    }
+    inUse.increment();
+    if(leakDetection) {
+      synchronized(leased) {
+        leased.put(buffer, new Throwable("Buffer emprestado e não devolvido ao pool"));
+      }
+    }
+    return buffer;
+  }
+
+  public void release(byte[] buffer) { // Devolve o buffer, que não pode mais ser utilizado por quem o devolveu (cada buffer emprestado é devolvido uma única vez)
+    if(buffer == null || buffer.length != bufferSize) return; // Alocado fora do pool
+    if(leakDetection) {
+      synchronized(leased) {
+        if(leased.remove(buffer) == null) { // Devolvido duas vezes ou não emprestado pelo pool: não entra na lista de livres
+          new Throwable("Buffer devolvido duas vezes ou não emprestado pelo pool").printStackTrace();
+          return;
+        }
+      }
+    }
+    inUse.decrement();
+    int home = stripe();
+    for(int i = 0 ; i <= mask ; i++) { // Lista da thread e, se cheia, as demais (pool cheio: o buffer fica para o GC)
+      if(stripes[(home + i) & mask].offer(buffer)) return;
+    }
+  }
+
+  public long getHits() {
+    return hits.sum();
+  }
+
+  public long getMisses() {
+    return misses.sum();
+  }
+
+  public long getInUse() { // Buffers emprestados e ainda não devolvidos
+    return inUse.sum();
+  }
+
+  public int reportLeaks() { // Com leakDetection, exibe onde cada buffer não devolvido foi emprestado, retorna a quantidade
+    if(!leakDetection) return 0;
+    synchronized(leased) {
+      for(Throwable origin : leased.values()) {
+        origin.printStackTrace();
+      }
+      return leased.size();
+    }
+  }
+
+  private byte[] poll() { // Lista da thread e, se vazia, as demais (buffers devolvidos por outra thread, como a da fila de atraso)
+    int home = stripe();
+    for(int i = 0 ; i <= mask ; i++) {
+      byte[] buffer = stripes[(home + i) & mask].poll();
+      if(buffer != null) return buffer;
+    }
+    return null;
+  }
+
+  private int stripe() {
+    long id = Thread.currentThread().getId();
+    return (int) (id ^ (id >>> 16)) & mask;
+  }
+}
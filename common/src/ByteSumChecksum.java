@@ -0,0 +1,27 @@
+import java.util.zip.Checksum;
+
+public class ByteSumChecksum implements Checksum { // Checksum original do canal: soma dos bytes (com sinal)
+  private int sum = 0;
+
+  @Override
+  public void update(int b) {
+    sum += (byte) b;
+  }
+
+  @Override
+  public void update(byte[] b, int off, int len) {
+    for(int i = off ; i < off + len ; i++) {
+      sum += b[i];
+    }
+  }
+
+  @Override
+  public long getValue() {
+    return sum;
+  }
+
+  @Override
+  public void reset() {
+    sum = 0;
+  }
+}
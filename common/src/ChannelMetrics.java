@@ -0,0 +1,105 @@
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+public class ChannelMetrics<C extends Enum<C>> { // Contadores por endereço remoto, incrementados sem trava global
+
+  private static class Peer { // Contadores de um endereço remoto
+    private final InetSocketAddress address;
+    private final LongAdder[] counters;
+    private final long[] consolidated; // Valores na última consolidação, os contadores nunca são zerados
+    private volatile boolean removed = false; // Removido do mapa: quem ainda o tem em lastPeer volta a buscar o endereço
+
+    private Peer(InetSocketAddress address, int size) {
+      this.address = address;
+      this.counters = new LongAdder[size];
+      this.consolidated = new long[size];
+      for(int i = 0 ; i < size ; i++) {
+        counters[i] = new LongAdder();
+      }
+    }
+
+    private boolean matches(DatagramPacket p) {
+      return address.getPort() == p.getPort() && address.getAddress().equals(p.getAddress());
+    }
+  }
+
+  private final int size;
+  private final PeerMap<Peer> peers = new PeerMap<>(); // Busca pelo endereço e porta sem alocar a chave
+  private final PeerMap.Factory<Peer> newPeer;
+  private final List<Peer> removed = new ArrayList<>(); // Endereços removidos, incluídos uma última vez na próxima consolidação
+  private final long[] dropped; // Totais dos endereços removidos já consolidados (mantêm total() desde a criação)
+  private volatile Peer lastPeer; // Último endereço utilizado, evita a busca para pacotes seguidos do mesmo endereço
+
+  public ChannelMetrics(Class<C> counterType) {
+    this.size = counterType.getEnumConstants().length;
+    this.dropped = new long[size];
+    this.newPeer = (InetAddress address, int port) -> new Peer(new InetSocketAddress(address, port), size);
+  }
+
+  public void increment(DatagramPacket p, C counter) {
+    getPeer(p).counters[counter.ordinal()].increment();
+  }
+
+  public void increment(InetSocketAddress address, C counter) { // Contador de um endereço sem pacote associado
+    peers.computeIfAbsent(address.getAddress(), address.getPort(), newPeer).counters[counter.ordinal()].increment();
+  }
+
+  public synchronized long total(C counter) { // Soma do contador em todos os endereços desde a criação
+    long[] total = { dropped[counter.ordinal()] };
+    peers.forEach((Peer peer) -> total[0] += peer.counters[counter.ordinal()].sum());
+    for(Peer peer : removed) {
+      total[0] += peer.counters[counter.ordinal()].sum();
+    }
+    return total[0];
+  }
+
+  public long total(InetSocketAddress address, C counter) { // Soma do contador de um endereço desde a criação (ou desde a sua remoção por inatividade)
+    Peer peer = peers.get(address.getAddress(), address.getPort());
+    return peer == null ? 0 : peer.counters[counter.ordinal()].sum();
+  }
+
+  public synchronized Map<InetSocketAddress, long[]> snapshot() { // Valores de cada endereço desde a última consolidação (indexados pelo ordinal do contador)
+    Map<InetSocketAddress, long[]> snapshot = new LinkedHashMap<>();
+    for(Peer peer : removed) {
+      addToSnapshot(snapshot, peer);
+      for(int i = 0 ; i < size ; i++) {
+        dropped[i] += peer.consolidated[i];
+      }
+    }
+    removed.clear();
+    peers.forEach((Peer peer) -> addToSnapshot(snapshot, peer));
+    return snapshot;
+  }
+
+  public synchronized void remove(InetAddress address, int port) { // Descarta os contadores de um endereço inativo, os valores ainda não consolidados entram na próxima consolidação
+    Peer peer = peers.get(address, port);
+    if(peer == null) return;
+    peer.removed = true;
+    peers.remove(address, port, peer);
+    removed.add(peer);
+  }
+
+  private void addToSnapshot(Map<InetSocketAddress, long[]> snapshot, Peer peer) { // Um endereço removido e recriado desde a última consolidação aparece uma única vez
+    long[] values = snapshot.computeIfAbsent(peer.address, address -> new long[size]);
+    for(int i = 0 ; i < size ; i++) { // Incrementos concorrentes entram nesta consolidação ou na próxima, nunca são perdidos
+      long sum = peer.counters[i].sum();
+      values[i] += sum - peer.consolidated[i];
+      peer.consolidated[i] = sum;
+    }
+  }
+
+  private Peer getPeer(DatagramPacket p) {
+    Peer peer = lastPeer;
+    if(peer != null && !peer.removed && peer.matches(p)) return peer;
+    peer = peers.get(p);
+    if(peer == null) peer = peers.computeIfAbsent(p.getAddress(), p.getPort(), newPeer);
+    lastPeer = peer;
+    return peer;
+  }
+}
@@ -0,0 +1,90 @@
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class DelayLine extends Thread { // Fila de pacotes atrasados: quem envia segue imediatamente e esta thread libera cada pacote no seu horário
+
+  public interface Transmitter { // Envio efetivo do pacote liberado
+    void transmit(DatagramPacket p) throws IOException;
+  }
+
+  private static class DelayedPacket implements Delayed {
+    private final DatagramPacket packet;
+    private final long releaseAt; // System.nanoTime() de liberação
+    private final long order; // Desempate: pacotes com o mesmo horário saem na ordem de chegada
+
+    private DelayedPacket(DatagramPacket packet, long releaseAt, long order) {
+      this.packet = packet;
+      this.releaseAt = releaseAt;
+      this.order = order;
+    }
+
+    @Override
+    public long getDelay(TimeUnit unit) {
+      return unit.convert(releaseAt - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public int compareTo(Delayed other) {
+      DelayedPacket packet = (DelayedPacket) other;
+      int compare = Long.compare(releaseAt, packet.releaseAt);
+      return compare != 0 ? compare : Long.compare(order, packet.order);
+    }
+  }
+
+  private final DelayQueue<DelayedPacket> queue = new DelayQueue<>();
+  private final AtomicLong order = new AtomicLong();
+  private final Transmitter transmitter;
+  private final BufferPool bufferPool; // Origem das cópias dos pacotes atrasados, devolvidas após o envio
+
+  public DelayLine(Transmitter transmitter, BufferPool bufferPool) {
+    super("DelayLine");
+    this.transmitter = transmitter;
+    this.bufferPool = bufferPool;
+    this.setDaemon(true); // Não impede o término do programa, pacotes ainda na fila são perdidos como em trânsito
+    this.start();
+  }
+
+  public void schedule(DatagramPacket p, long delayMS) { // Copia o pacote (o original pode ser reutilizado pelo remetente) e agenda o envio
+    byte[] data = bufferPool.lease(p.getLength());
+    System.arraycopy(p.getData(), p.getOffset(), data, 0, p.getLength());
+    DatagramPacket copy = new DatagramPacket(data, p.getLength(), p.getSocketAddress());
+    queue.put(new DelayedPacket(copy, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMS), order.getAndIncrement()));
+  }
+
+  public void close() { // Encerra a thread e devolve ao pool as cópias dos pacotes ainda na fila (perdidos como em trânsito)
+    interrupt();
+    try {
+      join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    for(DelayedPacket delayed : queue) {
+      bufferPool.release(delayed.packet.getData());
+    }
+    queue.clear();
+  }
+
+  @Override
+  public void run() {
+    while(!isInterrupted()) {
+      DelayedPacket delayed;
+      try {
+        delayed = queue.take();
+      } catch (InterruptedException e) {
+        return;
+      }
+      try {
+        transmitter.transmit(delayed.packet);
+      } catch (IOException e) {
+        if(isInterrupted()) return; // Canal fechado
+        e.printStackTrace();
+      } finally {
+        bufferPool.release(delayed.packet.getData());
+      }
+    }
+  }
+}
@@ -0,0 +1,158 @@
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class Impairment { // Sorteio das falhas injetadas pelo canal: sequência reproduzível por semente e modelos de perda
+
+  public enum Direction { DATA, ACK } // Cada destinatário tem uma sequência de sorteios para os segmentos de dados e outra para os ACKs
+
+  private interface LossModel { // Decide se o próximo pacote para o destinatário é eliminado
+    boolean lose(Random random, int probability);
+  }
+
+  private static class Uniform implements LossModel { // Perdas independentes com probabilidade eliminateProbability
+    @Override
+    public boolean lose(Random random, int probability) {
+      return random.nextInt(100) < probability;
+    }
+  }
+
+  private static class GilbertElliott implements LossModel { // Perdas em rajadas: cadeia de Markov com um estado bom e um estado de rajada
+    private final double burstStart; // Probabilidade (%) de passar do estado bom para o de rajada a cada pacote
+    private final double burstEnd; // Probabilidade (%) de voltar ao estado bom a cada pacote
+    private final double burstLoss; // Probabilidade (%) de perda no estado de rajada
+    private boolean burst = false;
+
+    private GilbertElliott(double burstStart, double burstEnd, double burstLoss) {
+      this.burstStart = burstStart;
+      this.burstEnd = burstEnd;
+      this.burstLoss = burstLoss;
+    }
+
+    @Override
+    public boolean lose(Random random, int probability) { // probability: perda no estado bom
+      burst = burst ? random.nextDouble() * 100 >= burstEnd : random.nextDouble() * 100 < burstStart;
+      return random.nextDouble() * 100 < (burst ? burstLoss : probability);
+    }
+  }
+
+  private static class Trace implements LossModel { // Perdas lidas de um arquivo (1 elimina, 0 entrega), repetido ao chegar ao fim
+    private final boolean[] trace;
+    private int position = 0;
+
+    private Trace(boolean[] trace) {
+      this.trace = trace;
+    }
+
+    @Override
+    public boolean lose(Random random, int probability) {
+      boolean lost = trace[position];
+      position = (position + 1) % trace.length;
+      return lost;
+    }
+  }
+
+  private class Stream { // Sequência de sorteios de um destinatário em uma direção: reproduzível se cada direção sorteia em uma ordem fixa (uma thread por vez)
+    private final Random random;
+    private final LossModel lossModel = createLossModel();
+
+    private Stream(InetSocketAddress address, Direction direction) {
+      this.random = seed == null ? new Random() : new Random(seed * 31 + address.hashCode() + direction.ordinal() * 0x9E3779B97F4A7C15L);
+    }
+  }
+
+  private class Peer { // Sorteios de um destinatário, independentes dos demais
+    private final InetSocketAddress address;
+    private final Stream[] streams = new Stream[Direction.values().length];
+
+    private Peer(InetSocketAddress address) {
+      this.address = address;
+      for(Direction direction : Direction.values()) {
+        streams[direction.ordinal()] = new Stream(address, direction);
+      }
+    }
+
+    private boolean matches(DatagramPacket p) {
+      return address.getPort() == p.getPort() && address.getAddress().equals(p.getAddress());
+    }
+  }
+
+  private final Long seed;
+  private final String lossModel;
+  private final double burstStart;
+  private final double burstEnd;
+  private final double burstLoss;
+  private final boolean[] trace;
+  private final ConcurrentHashMap<InetSocketAddress, Peer> peers = new ConcurrentHashMap<>();
+  private volatile Peer lastPeer; // Último destinatário, evita a busca no mapa para pacotes seguidos do mesmo destinatário
+
+  public Impairment(Long seed, String lossModel, double burstStart, double burstEnd, double burstLoss, String traceFile) {
+    this.seed = seed;
+    this.lossModel = lossModel;
+    this.burstStart = burstStart;
+    this.burstEnd = burstEnd;
+    this.burstLoss = burstLoss;
+    this.trace = lossModel.equalsIgnoreCase("trace") ? readTrace(traceFile) : null;
+  }
+
+  public boolean lose(DatagramPacket p, Direction direction, int probability) { // Perda segundo o modelo configurado
+    Stream stream = getPeer(p).streams[direction.ordinal()];
+    synchronized(stream) {
+      return stream.lossModel.lose(stream.random, probability);
+    }
+  }
+
+  public boolean chance(DatagramPacket p, Direction direction, int probability) { // Sorteio independente com probabilidade (%) probability
+    Stream stream = getPeer(p).streams[direction.ordinal()];
+    synchronized(stream) {
+      return stream.random.nextInt(100) < probability;
+    }
+  }
+
+  public int nextInt(DatagramPacket p, Direction direction, int bound) {
+    Stream stream = getPeer(p).streams[direction.ordinal()];
+    synchronized(stream) {
+      return stream.random.nextInt(bound);
+    }
+  }
+
+  private LossModel createLossModel() {
+    if(lossModel.equalsIgnoreCase("gilbert-elliott")) return new GilbertElliott(burstStart, burstEnd, burstLoss);
+    if(lossModel.equalsIgnoreCase("trace")) return new Trace(trace);
+    return new Uniform();
+  }
+
+  private Peer getPeer(DatagramPacket p) {
+    Peer peer = lastPeer;
+    if(peer != null && peer.matches(p)) return peer;
+    peer = peers.computeIfAbsent(new InetSocketAddress(p.getAddress(), p.getPort()), Peer::new);
+    lastPeer = peer;
+    return peer;
+  }
+
+  private static boolean[] readTrace(String traceFile) { // Cada caractere 0 ou 1 do arquivo é um pacote, os demais são ignorados
+    String content = "";
+    try {
+      content = Files.readString(Path.of(traceFile == null ? "" : traceFile));
+    } catch (IOException e) {
+      System.out.println("Could not read loss trace file");
+      e.printStackTrace();
+      System.exit(1);
+    }
+    boolean[] trace = new boolean[content.length()];
+    int length = 0;
+    for(char c : content.toCharArray()) {
+      if(c == '0' || c == '1') trace[length++] = c == '1';
+    }
+    if(length == 0) {
+      System.out.println("Loss trace file is empty");
+      System.exit(1);
+    }
+    return Arrays.copyOf(trace, length);
+  }
+}
@@ -0,0 +1,212 @@
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.net.DatagramPacket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+public class PacketLog implements AutoCloseable { // Log assíncrono de pacotes: os eventos são gravados em um buffer circular e escritos por uma única thread
+
+  public enum Level { OFF, WARN, INFO, DEBUG } // WARN: falhas e anomalias, INFO: pacotes tratados normalmente, DEBUG: timers
+
+  public enum Color {
+    NONE(null), RED("\u001B[31m"), GREEN("\u001B[32m"), YELLOW("\u001B[33m"), BLUE("\u001B[34m");
+
+    private final String code;
+
+    Color(String code) {
+      this.code = code;
+    }
+  }
+
+  public interface Formatter { // Conteúdo do pacote a partir dos bytes copiados do segmento (executado pela thread de escrita)
+    String format(byte[] segment, int length);
+  }
+
+  private static final long NO_DETAIL = Long.MIN_VALUE;
+
+  private static class Event { // Posição do buffer circular, reutilizada a cada volta
+    private volatile long sequence = -1; // Publica o evento para a thread de escrita
+    private Color color;
+    private String text; // Status do pacote ou formato da mensagem (constante, não é formatado na thread do canal)
+    private long detail;
+    private boolean packet;
+    private boolean received;
+    private byte[] segment = new byte[0]; // Cópia do segmento, cresce sob demanda
+    private int length;
+  }
+
+  private final Level level;
+  private final Formatter formatter;
+  private final boolean colors;
+  private final PrintStream out;
+  private final Event[] events;
+  private final int mask;
+  private final AtomicLong head = new AtomicLong(); // Próxima posição a ser reservada pelos produtores
+  private volatile long tail = 0; // Próxima posição a ser formatada
+  private volatile long written = 0; // Eventos já escritos na saída
+  private final LongAdder dropped = new LongAdder(); // Eventos descartados com o buffer cheio
+  private final Thread writer;
+  private volatile boolean running = true;
+
+  public PacketLog(Level level, String file, int bufferSize, boolean colors, Formatter formatter) {
+    this.level = level;
+    this.formatter = formatter;
+    this.colors = colors && (file == null || file.isEmpty()); // Cores apenas no console
+    this.out = openOutput(file);
+    int capacity = 1;
+    while(capacity < bufferSize) {
+      capacity <<= 1;
+    }
+    this.events = new Event[capacity];
+    this.mask = capacity - 1;
+    for(int i = 0 ; i < capacity ; i++) {
+      events[i] = new Event();
+    }
+    this.writer = new Thread(this::drain, "PacketLog");
+    this.writer.setDaemon(true);
+    if(level != Level.OFF) this.writer.start();
+  }
+
+  public static Level parseLevel(String level) {
+    return level == null ? Level.DEBUG : Level.valueOf(level.toUpperCase());
+  }
+
+  public boolean isEnabled(Level level) {
+    return level.ordinal() <= this.level.ordinal();
+  }
+
+  public void packet(Level level, Color color, String status, DatagramPacket p, boolean received) {
+    packet(level, color, status, NO_DETAIL, p, received);
+  }
+
+  public void packet(Level level, Color color, String status, long detail, DatagramPacket p, boolean received) { // status pode conter %d, preenchido com detail
+    if(!isEnabled(level)) return;
+    long sequence = claim();
+    if(sequence == -1) return;
+    Event event = events[(int) sequence & mask];
+    fill(event, color, status, detail);
+    event.packet = true;
+    event.received = received;
+    if(event.segment.length < p.getLength()) event.segment = new byte[p.getLength()];
+    System.arraycopy(p.getData(), p.getOffset(), event.segment, 0, p.getLength());
+    event.length = p.getLength();
+    event.sequence = sequence;
+  }
+
+  public void event(Level level, Color color, String format, long detail) { // Mensagem sem pacote associado, format contém %d
+    if(!isEnabled(level)) return;
+    long sequence = claim();
+    if(sequence == -1) return;
+    Event event = events[(int) sequence & mask];
+    fill(event, color, format, detail);
+    event.packet = false;
+    event.sequence = sequence;
+  }
+
+  public String colorize(Color color, String text) {
+    return colors && color.code != null ? color.code + text + "\u001B[0m" : text;
+  }
+
+  public void flush() { // Aguarda a escrita dos eventos já registrados
+    long target = head.get();
+    while(running && writer.isAlive() && written < target) {
+      LockSupport.parkNanos(100_000);
+    }
+  }
+
+  @Override
+  public void close() {
+    if(!running) return;
+    flush();
+    running = false;
+    try {
+      writer.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    if(out != System.out) out.close();
+  }
+
+  private long claim() { // Reserva uma posição no buffer, descarta o evento se o buffer estiver cheio
+    long sequence;
+    do {
+      sequence = head.get();
+      if(sequence - tail >= events.length) {
+        dropped.increment();
+        return -1;
+      }
+    } while(!head.compareAndSet(sequence, sequence + 1));
+    return sequence;
+  }
+
+  private void fill(Event event, Color color, String text, long detail) {
+    event.color = color;
+    event.text = text;
+    event.detail = detail;
+  }
+
+  private void drain() { // Thread de escrita: formata e escreve os eventos em lote
+    StringBuilder batch = new StringBuilder();
+    long reportedDrops = 0;
+    while(running) {
+      long sequence = tail;
+      Event event = events[(int) sequence & mask];
+      if(event.sequence != sequence) { // Nada publicado, escreve o lote acumulado e aguarda
+        write(batch, sequence);
+        long drops = dropped.sum();
+        if(drops != reportedDrops) {
+          out.printf("%d eventos de log descartados (buffer cheio)%n", drops - reportedDrops);
+          reportedDrops = drops;
+        }
+        LockSupport.parkNanos(1_000_000);
+        continue;
+      }
+      int start = batch.length();
+      try {
+        format(batch, event);
+      } catch (RuntimeException e) { // Um evento mal formatado não pode encerrar a thread de escrita
+        batch.setLength(start); // Descarta a linha parcial
+        batch.append("Falha ao formatar evento de log: ").append(e).append(System.lineSeparator());
+      }
+      tail = sequence + 1; // Libera a posição para os produtores
+      if(batch.length() > 64 * 1024) write(batch, sequence + 1);
+    }
+    write(batch, tail);
+  }
+
+  private void write(StringBuilder batch, long sequence) {
+    if(batch.length() > 0) {
+      out.print(batch);
+      out.flush();
+      batch.setLength(0);
+    }
+    written = sequence;
+  }
+
+  private void format(StringBuilder batch, Event event) { // <Recebida|Enviada> [número de sequência]: status - "conteúdo"
+    String text = colorize(event.color, event.detail == NO_DETAIL ? event.text : String.format(event.text, event.detail));
+    if(event.packet) {
+      int seqNumber = event.length < 8 ? 0 : ((event.segment[4] & 0xFF) << 24) | ((event.segment[5] & 0xFF) << 16) | ((event.segment[6] & 0xFF) << 8) | (event.segment[7] & 0xFF);
+      batch.append(event.received ? colorize(Color.GREEN, "Recebida") : colorize(Color.BLUE, "Enviada"))
+        .append(" [").append(seqNumber).append("]: ").append(text)
+        .append(" - \"").append(formatter.format(event.segment, event.length)).append('"');
+    } else {
+      batch.append(text);
+    }
+    batch.append(System.lineSeparator());
+  }
+
+  private static PrintStream openOutput(String file) {
+    if(file == null || file.isEmpty()) return System.out;
+    try {
+      return new PrintStream(new FileOutputStream(file), false, StandardCharsets.UTF_8);
+    } catch (FileNotFoundException e) {
+      System.out.println("Could not open log file, using console");
+      e.printStackTrace();
+      return System.out;
+    }
+  }
+}
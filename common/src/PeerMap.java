@@ -0,0 +1,117 @@
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+public class PeerMap<V> { // Mapa por endereço remoto com chave primitiva (endereço IPv4 e porta em um long): a busca não aloca nem percorre os demais endereços
+
+  public interface Factory<V> { // Cria o valor do endereço ainda ausente
+    V create(InetAddress address, int port);
+  }
+
+  private static class Node<V> { // Entradas imutáveis: a leitura percorre a lista da posição sem trava
+    private final long key;
+    private final InetAddress address;
+    private final int port;
+    private final V value;
+    private final Node<V> next;
+
+    private Node(long key, InetAddress address, int port, V value, Node<V> next) {
+      this.key = key;
+      this.address = address;
+      this.port = port;
+      this.value = value;
+      this.next = next;
+    }
+
+    private boolean matches(long key, InetAddress address, int port) { // A chave de um endereço IPv6 pode colidir, o endereço é sempre comparado
+      return this.key == key && this.port == port && this.address.equals(address);
+    }
+  }
+
+  private volatile AtomicReferenceArray<Node<V>> table = new AtomicReferenceArray<>(16); // Substituída por inteiro ao crescer, leituras em andamento continuam na anterior
+  private int size = 0; // Alterado apenas sob a trava do mapa
+
+  public static long key(InetAddress address, int port) { // hashCode de Inet4Address é o próprio endereço (sem alocar, ao contrário de getAddress())
+    return ((address.hashCode() & 0xFFFFFFFFL) << 16) | (port & 0xFFFF);
+  }
+
+  public V get(DatagramPacket p) { // Valor do remetente ou destinatário do pacote
+    return get(p.getAddress(), p.getPort());
+  }
+
+  public V get(InetAddress address, int port) {
+    long key = key(address, port);
+    AtomicReferenceArray<Node<V>> table = this.table;
+    for(Node<V> node = table.get(index(key, table.length())) ; node != null ; node = node.next) {
+      if(node.matches(key, address, port)) return node.value;
+    }
+    return null;
+  }
+
+  public V computeIfAbsent(InetAddress address, int port, Factory<V> factory) { // Valor do endereço, criado na primeira vez (a criação é feita sob a trava do mapa)
+    V value = get(address, port);
+    if(value != null) return value;
+    synchronized(this) {
+      value = get(address, port);
+      if(value != null) return value;
+      if(size + 1 > table.length() * 3 / 4) resize();
+      value = factory.create(address, port);
+      long key = key(address, port);
+      int index = index(key, table.length());
+      table.set(index, new Node<>(key, address, port, value, table.get(index)));
+      size++;
+      return value;
+    }
+  }
+
+  public synchronized boolean remove(InetAddress address, int port, V value) { // Remove o endereço se ainda associado a value, retorna false caso contrário
+    long key = key(address, port);
+    int index = index(key, table.length());
+    Node<V> head = table.get(index);
+    Node<V> rebuilt = null; // Entradas anteriores à removida são recriadas, as seguintes são compartilhadas
+    for(Node<V> node = head ; node != null ; node = node.next) {
+      if(node.matches(key, address, port)) {
+        if(node.value != value) return false;
+        Node<V> tail = node.next;
+        for(Node<V> previous = head ; previous != node ; previous = previous.next) {
+          tail = new Node<>(previous.key, previous.address, previous.port, previous.value, tail);
+        }
+        table.set(index, tail);
+        size--;
+        return true;
+      }
+    }
+    return false;
+  }
+
+  public void forEach(Consumer<V> action) { // Percorre os valores, entradas incluídas ou removidas durante a iteração podem ou não aparecer
+    AtomicReferenceArray<Node<V>> table = this.table;
+    for(int i = 0 ; i < table.length() ; i++) {
+      for(Node<V> node = table.get(i) ; node != null ; node = node.next) {
+        action.accept(node.value);
+      }
+    }
+  }
+
+  public synchronized int size() {
+    return size;
+  }
+
+  private void resize() { // Dobra a tabela (sob a trava do mapa)
+    AtomicReferenceArray<Node<V>> old = table;
+    AtomicReferenceArray<Node<V>> grown = new AtomicReferenceArray<>(old.length() * 2);
+    for(int i = 0 ; i < old.length() ; i++) {
+      for(Node<V> node = old.get(i) ; node != null ; node = node.next) {
+        int index = index(node.key, grown.length());
+        grown.set(index, new Node<>(node.key, node.address, node.port, node.value, grown.get(index)));
+      }
+    }
+    table = grown;
+  }
+
+  private static int index(long key, int length) { // Espalha a chave (endereços de uma mesma rede diferem apenas nos bits baixos)
+    long hash = key * 0x9E3779B97F4A7C15L;
+    return (int) (hash >>> 32) & (length - 1);
+  }
+}
@@ -0,0 +1,77 @@
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+
+public class SelectorTransport implements AutoCloseable { // Laço de eventos NIO: uma única thread recebe os datagramas de várias portas
+
+  public interface Endpoint { // Destino dos datagramas recebidos em uma porta
+    void onDatagram(DatagramPacket p) throws IOException;
+  }
+
+  private Selector selector;
+  private ByteBuffer buffer = ByteBuffer.allocate(0); // Buffer de recepção reutilizado para todos os datagramas, com o tamanho do maior datagrama aceito pelas portas
+  private DatagramPacket packet = new DatagramPacket(buffer.array(), 0); // Pacote reutilizado, aponta para o buffer de recepção
+
+  public SelectorTransport() throws IOException {
+    this.selector = Selector.open();
+  }
+
+  public DatagramChannel bind(int port, Endpoint endpoint, int maxDatagramSize) throws IOException { // Abre a porta em modo não bloqueante e a registra no selector
+    if(maxDatagramSize > buffer.capacity()) { // Datagramas maiores que o buffer seriam truncados pelo receive
+      buffer = ByteBuffer.allocate(maxDatagramSize);
+      packet.setData(buffer.array());
+    }
+    DatagramChannel channel = DatagramChannel.open();
+    channel.bind(new InetSocketAddress(port));
+    channel.configureBlocking(false);
+    channel.register(selector, SelectionKey.OP_READ, endpoint);
+    return channel;
+  }
+
+  public void run(long idleTimeoutMS) throws IOException { // Processa os datagramas até passar idleTimeoutMS sem receber nenhum
+    long lastReceived = System.currentTimeMillis();
+    while(true) {
+      if(selector.select(idleTimeoutMS) == 0) {
+        if(System.currentTimeMillis() - lastReceived >= idleTimeoutMS) return;
+        continue;
+      }
+      lastReceived = System.currentTimeMillis();
+      Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+      while(keys.hasNext()) {
+        SelectionKey key = keys.next();
+        keys.remove();
+        drain(key);
+      }
+    }
+  }
+
+  private void drain(SelectionKey key) throws IOException { // Entrega todos os datagramas disponíveis na porta antes de voltar ao selector
+    DatagramChannel channel = (DatagramChannel) key.channel();
+    Endpoint endpoint = (Endpoint) key.attachment();
+    SocketAddress address;
+    while((address = channel.receive(buffer)) != null) {
+      packet.setData(buffer.array(), 0, buffer.position());
+      packet.setSocketAddress(address);
+      buffer.clear();
+      try {
+        endpoint.onDatagram(packet);
+      } catch (IOException e) { // Uma falha em uma porta não interrompe as demais
+        e.printStackTrace();
+      }
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    for(SelectionKey key : selector.keys()) {
+      key.channel().close();
+    }
+    selector.close();
+  }
+}
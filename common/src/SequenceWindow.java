@@ -0,0 +1,51 @@
+import java.util.Arrays;
+
+public class SequenceWindow { // Números de sequência recebidos de um remetente: bitmap deslizante com memória limitada à janela de reordenação
+  private long[] bits;
+  private int mask;
+  private int floor = 1; // Menor número de sequência representado no bitmap, os anteriores são considerados já recebidos
+  private int highest = 0; // Maior número de sequência recebido
+  private long distinct = 0; // Quantidade de números de sequência distintos recebidos
+
+  public SequenceWindow(int size) { // size: quantidade de números de sequência acompanhados (arredondada para potência de 2)
+    int capacity = 64;
+    while(capacity < size) {
+      capacity <<= 1;
+    }
+    this.bits = new long[capacity / 64];
+    this.mask = capacity - 1;
+  }
+
+  public synchronized boolean contains(int seqNum) { // O(1)
+    if(seqNum < floor) return true;
+    if(seqNum > highest) return false;
+    int index = seqNum & mask;
+    return (bits[index >>> 6] & (1L << index)) != 0;
+  }
+
+  public synchronized boolean add(int seqNum) { // Registra o número de sequência, retorna false se já havia sido recebido
+    if(contains(seqNum)) return false;
+    if(seqNum - floor > mask) slide(seqNum - mask);
+    int index = seqNum & mask;
+    bits[index >>> 6] |= 1L << index;
+    highest = Math.max(highest, seqNum);
+    distinct++;
+    return true;
+  }
+
+  public synchronized long getMissing() { // Números de sequência entre 1 e o maior recebido que não chegaram
+    return highest - distinct;
+  }
+
+  private void slide(int newFloor) { // Avança o início da janela, limpando as posições que serão reutilizadas
+    if(newFloor - floor > mask) {
+      Arrays.fill(bits, 0);
+    } else {
+      for(int seqNum = floor ; seqNum < newFloor ; seqNum++) {
+        int index = seqNum & mask;
+        bits[index >>> 6] &= ~(1L << index);
+      }
+    }
+    floor = newFloor;
+  }
+}